@@ -0,0 +1,49 @@
+package eu.inn.metrics.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the selected benchmarks (all by default) with 1, 2, 4 ... N writer threads,
+ * where N is the number of available processors, and reports allocation rates through the GC profiler.
+ *
+ * Any standard JMH command line option could be passed, e.g. {@code java -jar target/benchmarks.jar Reservoir -p type=hdr}.
+ * If the {@code -t} option is present, only that threads count is used.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+        for (int threads : threadCounts(commandLineOptions)) {
+            Options options = new OptionsBuilder()
+                    .parent(commandLineOptions)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+
+    private static List<Integer> threadCounts(CommandLineOptions options) {
+        List<Integer> counts = new ArrayList<>();
+        if (options.getThreads().hasValue()) {
+            counts.add(options.getThreads().get());
+        } else {
+            int processors = Runtime.getRuntime().availableProcessors();
+            for (int threads = 1; threads < processors; threads *= 2) {
+                counts.add(threads);
+            }
+            counts.add(processors);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,42 @@
+package eu.inn.metrics.benchmarks;
+
+import com.codahale.metrics.Meter;
+import eu.inn.metrics.TimeWindowMeter;
+import eu.inn.metrics.sed.SlidingExponentialDecayingReservoir;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of a mark of the Dropwizard meter and the time-window one
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MeterBenchmark {
+
+    @Param({"ewma", "window"})
+    public String type;
+
+    private Meter meter;
+
+    @Setup
+    public void setUp() {
+        if ("ewma".equals(type)) {
+            meter = new Meter();
+        } else {
+            meter = new TimeWindowMeter(SlidingExponentialDecayingReservoir.builder()
+                    .flushEvery(1, TimeUnit.SECONDS)
+                    .window(15, TimeUnit.SECONDS)
+                    .buildCounter());
+        }
+    }
+
+    @Benchmark
+    public void mark() {
+        meter.mark();
+    }
+}
@@ -0,0 +1,53 @@
+package eu.inn.metrics.benchmarks;
+
+import eu.inn.metrics.hdr.HdrLatencyReservoir;
+import eu.inn.metrics.hdr.RecordingMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of an update of HDR reservoirs in every recording mode.
+ *
+ * Values are spread between 1us and 2ms and the expected interval is 1ms,
+ * so about a half of values in the EXPECTED_INTERVAL mode add a corrected value.
+ * Corrections of LATENCY_STATS for detected pauses are made by the pause detector thread, they aren't measured here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordingModeBenchmark {
+
+    @Param({"RAW", "EXPECTED_INTERVAL", "LATENCY_STATS"})
+    public RecordingMode mode;
+
+    private HdrLatencyReservoir reservoir;
+
+    @Setup
+    public void setUp() {
+        reservoir = HdrLatencyReservoir.builder()
+                .recordingMode(mode)
+                .expectedInterval(1, TimeUnit.MILLISECONDS)
+                .flushEvery(1, TimeUnit.SECONDS)
+                .window(15, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @State(Scope.Thread)
+    public static class Values {
+        private long next = 1;
+
+        long next() {
+            next = next * 6364136223846793005L + 1442695040888963407L;
+            return 1000 + ((next >>> 1) % 2000000L);
+        }
+    }
+
+    @Benchmark
+    public void update(Values values) {
+        reservoir.update(values.next());
+    }
+}
@@ -0,0 +1,64 @@
+package eu.inn.metrics.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import eu.inn.metrics.CustomMetricRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@code CustomMetricRegistry.timer(name)} for names which are already registered.
+ * {@code plainTimer} is a baseline: a lookup in a plain MetricRegistry, i.e. a map access with an instance check.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistryLookupBenchmark {
+
+    @Param({"1", "1000"})
+    public int timers;
+
+    private CustomMetricRegistry registry;
+
+    private MetricRegistry plainRegistry;
+
+    private String[] names;
+
+    @Setup
+    public void setUp() {
+        registry = CustomMetricRegistry.builder().build();
+        plainRegistry = new MetricRegistry();
+        names = new String[timers];
+        for (int i = 0; i < timers; i++) {
+            names[i] = "timer." + i;
+            registry.timer(names[i]);
+            plainRegistry.timer(names[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int position;
+
+        int next(int bound) {
+            if (++position >= bound) {
+                position = 0;
+            }
+            return position;
+        }
+    }
+
+    @Benchmark
+    public Timer timer(Cursor cursor) {
+        return registry.timer(names[cursor.next(timers)]);
+    }
+
+    @Benchmark
+    public Timer plainTimer(Cursor cursor) {
+        return plainRegistry.timer(names[cursor.next(timers)]);
+    }
+}
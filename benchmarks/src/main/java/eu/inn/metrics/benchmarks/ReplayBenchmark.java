@@ -0,0 +1,125 @@
+package eu.inn.metrics.benchmarks;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import eu.inn.metrics.common.ManualFlushScheduler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays synthetic traffic through reservoirs driven by a {@link ManualFlushScheduler},
+ * so a whole window of traffic is simulated in the setup and every invocation replays one more second.
+ *
+ * The score is the cost of replaying a second and taking a snapshot of the window,
+ * errors of the snapshot against exact values of the window are reported as secondary results in percents.
+ * The hdr type isn't replayed: LatencyStats estimates intervals with the wall clock.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReplayBenchmark {
+
+    private static final int VALUES_PER_SECOND = 100;
+
+    @Param({"hdrStriped", "bucket", "sed"})
+    public ReservoirType type;
+
+    @Param({"1", "15", "60"})
+    public int windowMinutes;
+
+    private ManualFlushScheduler scheduler;
+
+    private Reservoir reservoir;
+
+    /**
+     * values of every second of the window
+     */
+    private long[][] seconds;
+
+    private int second = 0;
+
+    private long next = 1;
+
+    @Setup
+    public void setUp() {
+        scheduler = new ManualFlushScheduler();
+        reservoir = type.builder()
+                .flushScheduler(scheduler)
+                .flushEvery(1, TimeUnit.SECONDS)
+                .window(windowMinutes, TimeUnit.MINUTES)
+                .build();
+        seconds = new long[(int) TimeUnit.MINUTES.toSeconds(windowMinutes)][VALUES_PER_SECOND];
+        for (int i = 0; i < seconds.length; i++) {
+            replaySecond();
+        }
+    }
+
+    @Benchmark
+    public double replayAndSnapshot(Accuracy accuracy) {
+        replaySecond();
+        return reservoir.getSnapshot().get99thPercentile();
+    }
+
+    /**
+     * Errors of the snapshot at the end of an iteration, they aren't normalized by the number of invocations
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Accuracy {
+
+        public double p50Error;
+
+        public double p99Error;
+
+        public double meanError;
+
+        @TearDown(Level.Iteration)
+        public void measure(ReplayBenchmark benchmark) {
+            long[][] seconds = benchmark.seconds;
+            long[] exact = new long[seconds.length * VALUES_PER_SECOND];
+            double sum = 0;
+            for (int i = 0; i < seconds.length; i++) {
+                System.arraycopy(seconds[i], 0, exact, i * VALUES_PER_SECOND, VALUES_PER_SECOND);
+            }
+            Arrays.sort(exact);
+            for (long value : exact) {
+                sum += value;
+            }
+            Snapshot snapshot = benchmark.reservoir.getSnapshot();
+            p50Error = error(snapshot.getMedian(), quantile(exact, 0.5));
+            p99Error = error(snapshot.get99thPercentile(), quantile(exact, 0.99));
+            meanError = error(snapshot.getMean(), sum / exact.length);
+        }
+    }
+
+    private void replaySecond() {
+        long[] values = seconds[second++ % seconds.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = nextLatency();
+            reservoir.update(values[i]);
+        }
+        scheduler.advance(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * exponentially distributed latencies with a mean of 1ms above 10us
+     */
+    private long nextLatency() {
+        next = next * 6364136223846793005L + 1442695040888963407L;
+        double uniform = ((next >>> 11) + 1) / (double) (1L << 53);
+        return 10000 + (long) (-Math.log(uniform) * 1000000);
+    }
+
+    private static long quantile(long[] sorted, double quantile) {
+        return sorted[Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1)];
+    }
+
+    private static double error(double actual, double expected) {
+        return Math.abs(actual - expected) * 100 / expected;
+    }
+}
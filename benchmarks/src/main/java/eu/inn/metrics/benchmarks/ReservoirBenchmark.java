@@ -0,0 +1,68 @@
+package eu.inn.metrics.benchmarks;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hot path ({@code update}) and the reporter path ({@code getSnapshot}) of the time window reservoirs.
+ *
+ * The {@code contended} group runs writers and a reader against the same reservoir,
+ * so the snapshot is taken from a window which is filled by the concurrent updates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReservoirBenchmark {
+
+    @Param({"hdr", "hdrStriped", "bucket", "sed"})
+    public ReservoirType type;
+
+    @Param({"100", "1000"})
+    public long flushMillis;
+
+    @Param({"1000", "15000"})
+    public long windowMillis;
+
+    private Reservoir reservoir;
+
+    @Setup
+    public void setUp() {
+        reservoir = type.create(flushMillis, windowMillis);
+    }
+
+    @State(Scope.Thread)
+    public static class Values {
+        private long next = 1;
+
+        long next() {
+            // latencies between 1us and ~1s
+            next = next * 6364136223846793005L + 1442695040888963407L;
+            return 1000 + ((next >>> 1) % 1000000000L);
+        }
+    }
+
+    @Benchmark
+    public void update(Values values) {
+        reservoir.update(values.next());
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public void contendedUpdate(Values values) {
+        reservoir.update(values.next());
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public Snapshot contendedSnapshot() {
+        return reservoir.getSnapshot();
+    }
+}
@@ -0,0 +1,50 @@
+package eu.inn.metrics.benchmarks;
+
+import com.codahale.metrics.Reservoir;
+import eu.inn.metrics.bucket.LogLinearBucketReservoir;
+import eu.inn.metrics.common.TimeWindowReservoirBuilder;
+import eu.inn.metrics.hdr.HdrLatencyReservoir;
+import eu.inn.metrics.sed.SlidingExponentialDecayingReservoir;
+
+import java.util.concurrent.TimeUnit;
+
+public enum ReservoirType {
+
+    hdr {
+        @Override
+        public TimeWindowReservoirBuilder<?> builder() {
+            return HdrLatencyReservoir.builder();
+        }
+    },
+
+    hdrStriped {
+        @Override
+        public TimeWindowReservoirBuilder<?> builder() {
+            return HdrLatencyReservoir.builder()
+                    .stripes(Runtime.getRuntime().availableProcessors());
+        }
+    },
+
+    bucket {
+        @Override
+        public TimeWindowReservoirBuilder<?> builder() {
+            return LogLinearBucketReservoir.builder();
+        }
+    },
+
+    sed {
+        @Override
+        public TimeWindowReservoirBuilder<?> builder() {
+            return SlidingExponentialDecayingReservoir.builder();
+        }
+    };
+
+    public abstract TimeWindowReservoirBuilder<?> builder();
+
+    public Reservoir create(long flushMillis, long windowMillis) {
+        return builder()
+                .flushEvery(flushMillis, TimeUnit.MILLISECONDS)
+                .window(windowMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+}
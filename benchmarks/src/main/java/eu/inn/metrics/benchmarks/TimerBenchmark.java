@@ -0,0 +1,50 @@
+package eu.inn.metrics.benchmarks;
+
+import com.codahale.metrics.Timer;
+import eu.inn.metrics.TimeWindowTimer;
+import eu.inn.metrics.bucket.LogLinearBucketReservoir;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares an update of the Dropwizard timer, which marks its meter and then updates the reservoir,
+ * with an update of the time-window timer, which derives its count and rates from the same reservoir
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimerBenchmark {
+
+    @Param({"dropwizard", "window"})
+    public String type;
+
+    private Timer timer;
+
+    @Setup
+    public void setUp() {
+        LogLinearBucketReservoir reservoir = LogLinearBucketReservoir.builder()
+                .flushEvery(1, TimeUnit.SECONDS)
+                .window(15, TimeUnit.SECONDS)
+                .build();
+        timer = "dropwizard".equals(type) ? new Timer(reservoir) : new TimeWindowTimer(reservoir);
+    }
+
+    @State(Scope.Thread)
+    public static class Values {
+        private long next = 1;
+
+        long next() {
+            next = next * 6364136223846793005L + 1442695040888963407L;
+            return 1000 + ((next >>> 1) % 2000000L);
+        }
+    }
+
+    @Benchmark
+    public void update(Values values) {
+        timer.update(values.next(), TimeUnit.NANOSECONDS);
+    }
+}
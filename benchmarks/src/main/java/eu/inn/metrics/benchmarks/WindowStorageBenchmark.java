@@ -0,0 +1,66 @@
+package eu.inn.metrics.benchmarks;
+
+import eu.inn.metrics.hdr.HdrLatencyReservoir;
+import eu.inn.metrics.hdr.WindowStorage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates many HDR reservoirs with every window storage, so window slots make up most of the heap.
+ * It's meant to be run with the GC profiler (the default of BenchmarkRunner):
+ * {@code gc.time} and {@code gc.count} show the cost of on-heap slots compared to the DIRECT storage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class WindowStorageBenchmark {
+
+    @Param({"DENSE", "PACKED", "COMPRESSED", "DIRECT"})
+    public WindowStorage storage;
+
+    @Param({"500"})
+    public int reservoirs;
+
+    private HdrLatencyReservoir[] timers;
+
+    @Setup
+    public void setUp() {
+        timers = new HdrLatencyReservoir[reservoirs];
+        for (int i = 0; i < reservoirs; i++) {
+            timers[i] = HdrLatencyReservoir.builder()
+                    .storage(storage)
+                    .disablePauseCorrection()
+                    .flushEvery(100, TimeUnit.MILLISECONDS)
+                    .window(2, TimeUnit.SECONDS)
+                    .build();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Values {
+        private long next = 1;
+        private int position;
+
+        long next() {
+            // latencies between 1us and ~1s
+            next = next * 6364136223846793005L + 1442695040888963407L;
+            return 1000 + ((next >>> 1) % 1000000000L);
+        }
+
+        int position(int bound) {
+            if (++position >= bound) {
+                position = 0;
+            }
+            return position;
+        }
+    }
+
+    @Benchmark
+    public void update(Values values) {
+        timers[values.position(reservoirs)].update(values.next());
+    }
+}
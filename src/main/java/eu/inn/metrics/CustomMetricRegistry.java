@@ -2,13 +2,45 @@ package eu.inn.metrics;
 
 
 import com.codahale.metrics.*;
+import eu.inn.metrics.common.FlushListener;
+import eu.inn.metrics.common.FlushScheduler;
+import eu.inn.metrics.common.TimeWindowReservoirBuilder;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 public class CustomMetricRegistry extends MetricRegistry {
 
     private ConcurrentMap<String, Metric> metrics;
 
+    /**
+     * typed views of registered metrics, so a lookup of an existing metric is a single map access
+     * without a type check; they are invalidated on removal
+     */
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Meter> meters = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private final TaggedMetricIndex<Timer> taggedTimers = new TaggedMetricIndex<>();
+
+    private final TaggedMetricIndex<Histogram> taggedHistograms = new TaggedMetricIndex<>();
+
+    private final TaggedMetricIndex<Meter> taggedMeters = new TaggedMetricIndex<>();
+
+    private final TaggedMetricIndex<Counter> taggedCounters = new TaggedMetricIndex<>();
+
+    /**
+     * locks of names which metrics are being created, so a slow builder blocks only callers of the same name
+     */
+    private final ConcurrentMap<String, Object> creationLocks = new ConcurrentHashMap<>();
+
     private final MetricBuilder<Timer> timersBuilder;
 
     private final MetricBuilder<Histogram> histogramsBuilder;
@@ -17,31 +49,150 @@ public class CustomMetricRegistry extends MetricRegistry {
 
     private final MetricBuilder<Counter> countersBuilder;
 
+    /**
+     * it's held here because the scheduler keeps only a weak reference to it
+     */
+    private final FlushListener idleMetricsSweeper;
+
     CustomMetricRegistry(MetricBuilder<Timer> timersBuilder, MetricBuilder<Histogram> histogramsBuilder, MetricBuilder<Meter> metersBuilder, MetricBuilder<Counter> countersBuilder) {
+        this(timersBuilder, histogramsBuilder, metersBuilder, countersBuilder, 0, TimeUnit.SECONDS, FlushScheduler.getDefault());
+    }
+
+    CustomMetricRegistry(MetricBuilder<Timer> timersBuilder, MetricBuilder<Histogram> histogramsBuilder, MetricBuilder<Meter> metersBuilder, MetricBuilder<Counter> countersBuilder,
+                         long idleTimeToLive, TimeUnit idleTimeToLiveUnit, FlushScheduler flushScheduler) {
         this.timersBuilder = timersBuilder;
         this.histogramsBuilder = histogramsBuilder;
         this.metersBuilder = metersBuilder;
         this.countersBuilder = countersBuilder;
+        if (idleTimeToLive > 0) {
+            idleMetricsSweeper = new IdleMetricsSweeper();
+            flushScheduler.register(idleMetricsSweeper, idleTimeToLive, idleTimeToLiveUnit);
+        } else {
+            idleMetricsSweeper = null;
+        }
     }
 
     @Override
     public Timer timer(String name) {
-        return getOrAdd(name, timersBuilder);
+        Timer timer = timers.get(name);
+        return timer != null ? timer : getOrAdd(name, timersBuilder, timers);
     }
 
     @Override
     public Histogram histogram(String name) {
-        return getOrAdd(name, histogramsBuilder);
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram : getOrAdd(name, histogramsBuilder, histograms);
     }
 
     @Override
     public Meter meter(String name) {
-        return getOrAdd(name, metersBuilder);
+        Meter meter = meters.get(name);
+        return meter != null ? meter : getOrAdd(name, metersBuilder, meters);
     }
 
     @Override
     public Counter counter(String name) {
-        return getOrAdd(name, countersBuilder);
+        Counter counter = counters.get(name);
+        return counter != null ? counter : getOrAdd(name, countersBuilder, counters);
+    }
+
+    /**
+     * Tagged metrics are registered with names like {@code name.tagKey.tagValue}, tags shouldn't contain dots,
+     * an existing tagged metric is looked up without building its name and without allocations.
+     */
+    public Timer timer(String name, String tagKey, String tagValue) {
+        Timer timer = taggedTimers.get(name, tagKey, tagValue);
+        return timer != null ? timer : getOrAddTagged(name, timersBuilder, timers, taggedTimers, tagKey, tagValue);
+    }
+
+    public Timer timer(String name, String tagKey1, String tagValue1, String tagKey2, String tagValue2) {
+        Timer timer = taggedTimers.get(name, tagKey1, tagValue1, tagKey2, tagValue2);
+        return timer != null ? timer : getOrAddTagged(name, timersBuilder, timers, taggedTimers, tagKey1, tagValue1, tagKey2, tagValue2);
+    }
+
+    /**
+     * @param tags tag keys followed by their values
+     */
+    public Timer timer(String name, String... tags) {
+        Timer timer = taggedTimers.get(name, tags);
+        return timer != null ? timer : getOrAddTagged(name, timersBuilder, timers, taggedTimers, tags);
+    }
+
+    public Histogram histogram(String name, String tagKey, String tagValue) {
+        Histogram histogram = taggedHistograms.get(name, tagKey, tagValue);
+        return histogram != null ? histogram : getOrAddTagged(name, histogramsBuilder, histograms, taggedHistograms, tagKey, tagValue);
+    }
+
+    public Histogram histogram(String name, String tagKey1, String tagValue1, String tagKey2, String tagValue2) {
+        Histogram histogram = taggedHistograms.get(name, tagKey1, tagValue1, tagKey2, tagValue2);
+        return histogram != null ? histogram : getOrAddTagged(name, histogramsBuilder, histograms, taggedHistograms, tagKey1, tagValue1, tagKey2, tagValue2);
+    }
+
+    public Histogram histogram(String name, String... tags) {
+        Histogram histogram = taggedHistograms.get(name, tags);
+        return histogram != null ? histogram : getOrAddTagged(name, histogramsBuilder, histograms, taggedHistograms, tags);
+    }
+
+    public Meter meter(String name, String tagKey, String tagValue) {
+        Meter meter = taggedMeters.get(name, tagKey, tagValue);
+        return meter != null ? meter : getOrAddTagged(name, metersBuilder, meters, taggedMeters, tagKey, tagValue);
+    }
+
+    public Meter meter(String name, String tagKey1, String tagValue1, String tagKey2, String tagValue2) {
+        Meter meter = taggedMeters.get(name, tagKey1, tagValue1, tagKey2, tagValue2);
+        return meter != null ? meter : getOrAddTagged(name, metersBuilder, meters, taggedMeters, tagKey1, tagValue1, tagKey2, tagValue2);
+    }
+
+    public Meter meter(String name, String... tags) {
+        Meter meter = taggedMeters.get(name, tags);
+        return meter != null ? meter : getOrAddTagged(name, metersBuilder, meters, taggedMeters, tags);
+    }
+
+    public Counter counter(String name, String tagKey, String tagValue) {
+        Counter counter = taggedCounters.get(name, tagKey, tagValue);
+        return counter != null ? counter : getOrAddTagged(name, countersBuilder, counters, taggedCounters, tagKey, tagValue);
+    }
+
+    public Counter counter(String name, String tagKey1, String tagValue1, String tagKey2, String tagValue2) {
+        Counter counter = taggedCounters.get(name, tagKey1, tagValue1, tagKey2, tagValue2);
+        return counter != null ? counter : getOrAddTagged(name, countersBuilder, counters, taggedCounters, tagKey1, tagValue1, tagKey2, tagValue2);
+    }
+
+    public Counter counter(String name, String... tags) {
+        Counter counter = taggedCounters.get(name, tags);
+        return counter != null ? counter : getOrAddTagged(name, countersBuilder, counters, taggedCounters, tags);
+    }
+
+    public static String taggedName(String name, String... tags) {
+        if (tags.length % 2 != 0) {
+            throw new IllegalArgumentException("Tags of " + name + " should be key and value pairs");
+        }
+        StringBuilder builder = new StringBuilder(name);
+        for (String tag : tags) {
+            if (tag == null) {
+                throw new IllegalArgumentException("Tags of " + name + " should be non-null");
+            }
+            if (tag.indexOf('.') >= 0) {
+                // a dot would make tags of different metrics look the same, e.g. "host", "a.b" and "host.a", "b"
+                throw new IllegalArgumentException("Tags of " + name + " shouldn't contain dots: " + tag);
+            }
+            builder.append('.').append(tag);
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public boolean remove(String name) {
+        boolean removed = super.remove(name);
+        timers.remove(name);
+        histograms.remove(name);
+        meters.remove(name);
+        counters.remove(name);
+        taggedTimers.remove(name);
+        taggedHistograms.remove(name);
+        taggedMeters.remove(name);
+        taggedCounters.remove(name);
+        return removed;
     }
 
     @Override
@@ -50,23 +201,97 @@ public class CustomMetricRegistry extends MetricRegistry {
         return metrics;
     }
 
+    private <T extends Metric> T getOrAdd(String name, MetricBuilder<T> builder, ConcurrentMap<String, T> cache) {
+        T metric = getOrAdd(name, builder);
+        cache.put(name, metric);
+        if (metrics.get(name) != metric) {
+            // the metric has been removed concurrently
+            cache.remove(name, metric);
+        }
+        return metric;
+    }
+
+    private <T extends Metric> T getOrAddTagged(String name, MetricBuilder<T> builder, ConcurrentMap<String, T> cache,
+                                                TaggedMetricIndex<T> index, String... tags) {
+        String taggedName = taggedName(name, tags);
+        T metric = getOrAdd(taggedName, builder, cache);
+        index.put(name, tags.clone(), taggedName, metric);
+        if (metrics.get(taggedName) != metric) {
+            // the metric has been removed concurrently
+            index.remove(taggedName);
+        }
+        return metric;
+    }
+
     protected  <T extends Metric> T getOrAdd(String name, MetricBuilder<T> builder) {
-        final Metric metric = metrics.get(name);
+        Metric metric = metrics.get(name);
         if (builder.isInstance(metric)) {
             return (T) metric;
         } else if (metric == null) {
-            try {
-                return register(name, builder.newMetric());
-            } catch (IllegalArgumentException e) {
-                final Metric added = metrics.get(name);
-                if (builder.isInstance(added)) {
-                    return (T) added;
-                }
+            metric = create(name, builder);
+            if (builder.isInstance(metric)) {
+                return (T) metric;
             }
         }
         throw new IllegalArgumentException(name + " is already used for a different type of metric");
     }
 
+    /**
+     * Metrics are created under a lock of their name, so concurrent callers don't build and register duplicates.
+     * The lock is dropped once the metric is registered, later callers find the metric in the map.
+     */
+    private Metric create(String name, MetricBuilder<?> builder) {
+        Object lock = new Object();
+        Object existing = creationLocks.putIfAbsent(name, lock);
+        if (existing != null) {
+            lock = existing;
+        }
+        try {
+            synchronized (lock) {
+                Metric metric = metrics.get(name);
+                if (metric == null) {
+                    try {
+                        metric = register(name, builder.newMetric());
+                    } catch (IllegalArgumentException e) {
+                        metric = metrics.get(name);
+                    }
+                }
+                return metric;
+            }
+        } finally {
+            creationLocks.remove(name, lock);
+        }
+    }
+
+    /**
+     * Removes counting metrics which counts haven't been changed since the previous sweep
+     */
+    private final class IdleMetricsSweeper implements FlushListener {
+
+        private Map<String, Long> lastCounts = new HashMap<>();
+
+        @Override
+        public void flush() {
+            Map<String, Long> counts = new HashMap<>(lastCounts.size());
+            for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+                if (entry.getValue() instanceof Counting) {
+                    String name = entry.getKey();
+                    // a window count of a steady counter doesn't change, so the total one is compared
+                    long count = entry.getValue() instanceof TimeWindowCounter
+                            ? ((TimeWindowCounter) entry.getValue()).getTotalCount()
+                            : ((Counting) entry.getValue()).getCount();
+                    Long lastCount = lastCounts.get(name);
+                    if (lastCount != null && lastCount == count) {
+                        remove(name);
+                    } else {
+                        counts.put(name, count);
+                    }
+                }
+            }
+            lastCounts = counts;
+        }
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -77,6 +302,11 @@ public class CustomMetricRegistry extends MetricRegistry {
         private MetricBuilder<Histogram> histogramsBuilder;
         private MetricBuilder<Meter> metersBuilder;
         private MetricBuilder<Counter> countersBuilder;
+        private long idleTimeToLive = 0;
+        private TimeUnit idleTimeToLiveUnit = TimeUnit.SECONDS;
+        private FlushScheduler flushScheduler = FlushScheduler.getDefault();
+        private TimeWindowReservoirBuilder<?> reservoirBuilder;
+        private boolean hibernateIdleReservoirs = false;
 
         public Builder() {
             fromFactory(new TimeWindowMetricBuilderFactory());
@@ -107,11 +337,60 @@ public class CustomMetricRegistry extends MetricRegistry {
             this.histogramsBuilder = factory.histogramsBuilder();
             this.metersBuilder = factory.metersBuilder();
             this.countersBuilder = factory.countersBuilder();
+            this.reservoirBuilder = factory instanceof TimeWindowMetricBuilderFactory
+                    ? ((TimeWindowMetricBuilderFactory) factory).getReservoirBuilder()
+                    : null;
+            return this;
+        }
+
+        /**
+         * Reservoirs of timers and histograms built by a {@link TimeWindowMetricBuilderFactory} hibernate
+         * as soon as their whole window is empty, so with {@link #removeIdleAfter} memory is bounded by active metrics.
+         * It's applied to the reservoir builder of the factory on build.
+         */
+        public Builder hibernateIdleReservoirs() {
+            this.hibernateIdleReservoirs = true;
+            return this;
+        }
+
+        /**
+         * e.g. a {@link eu.inn.metrics.common.ManualFlushScheduler} makes removal of idle metrics deterministic
+         */
+        public Builder flushScheduler(FlushScheduler flushScheduler) {
+            if (flushScheduler == null) {
+                throw new IllegalArgumentException("flushScheduler should be non-null");
+            }
+            this.flushScheduler = flushScheduler;
+            return this;
+        }
+
+        /**
+         * Removes timers, histograms, meters and counters which haven't been updated for the given time
+         * (they are checked once per the period, so a metric lives up to twice as long).
+         * Callers shouldn't keep references to metrics, they should look them up by names,
+         * otherwise updates of a removed metric are lost.
+         */
+        public Builder removeIdleAfter(long idleTimeToLive, TimeUnit idleTimeToLiveUnit) {
+            if (idleTimeToLive <= 0) {
+                throw new IllegalArgumentException("idleTimeToLive duration should be positive integer");
+            }
+            if (idleTimeToLiveUnit == null) {
+                throw new IllegalArgumentException("idleTimeToLive unit should be non-null");
+            }
+            this.idleTimeToLive = idleTimeToLive;
+            this.idleTimeToLiveUnit = idleTimeToLiveUnit;
             return this;
         }
 
         public CustomMetricRegistry build() {
-            return new CustomMetricRegistry(timersBuilder, histogramsBuilder, metersBuilder, countersBuilder);
+            if (hibernateIdleReservoirs) {
+                if (reservoirBuilder == null) {
+                    throw new IllegalStateException("hibernation of idle reservoirs needs metrics of a TimeWindowMetricBuilderFactory");
+                }
+                reservoirBuilder.hibernateWhenIdle(true);
+            }
+            return new CustomMetricRegistry(timersBuilder, histogramsBuilder, metersBuilder, countersBuilder,
+                    idleTimeToLive, idleTimeToLiveUnit, flushScheduler);
         }
     }
 }
@@ -0,0 +1,91 @@
+package eu.inn.metrics;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Reservoir;
+import eu.inn.metrics.hdr.HdrLatencyReservoir;
+import eu.inn.metrics.hdr.HistogramSnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Reads only values flushed since the previous call from HDR timers and histograms of a registry,
+ * so a push reporter doesn't send the same overlapping window on every report.
+ * Every reporter should have its own cursor, it isn't thread-safe.
+ */
+public class DeltaSnapshotCursor {
+
+    private final MetricRegistry registry;
+
+    private Map<String, Position> positions = new HashMap<>();
+
+    public DeltaSnapshotCursor(MetricRegistry registry) {
+        this(registry, false);
+    }
+
+    /**
+     * @param skipFlushed values which have been flushed into windows of existing metrics before the cursor is created
+     *                    are skipped if it's true, e.g. a log shouldn't write values older than itself
+     */
+    public DeltaSnapshotCursor(MetricRegistry registry, boolean skipFlushed) {
+        this.registry = registry;
+        if (skipFlushed) {
+            for (Map.Entry<String, Metric> entry : registry.getMetrics().entrySet()) {
+                Reservoir reservoir = reservoirOf(entry.getValue());
+                if (reservoir instanceof HdrLatencyReservoir) {
+                    HdrLatencyReservoir hdrReservoir = (HdrLatencyReservoir) reservoir;
+                    positions.put(entry.getKey(), new Position(hdrReservoir, hdrReservoir.newLatestCursor()));
+                }
+            }
+        }
+    }
+
+    /**
+     * A metric seen for the first time is read from the oldest interval in its window
+     *
+     * @return snapshots of values flushed since the previous call, metrics without new values are skipped
+     */
+    public SortedMap<String, HistogramSnapshot> next() {
+        SortedMap<String, HistogramSnapshot> snapshots = new TreeMap<>();
+        Map<String, Position> current = new HashMap<>(positions.size());
+        for (Map.Entry<String, Metric> entry : registry.getMetrics().entrySet()) {
+            Reservoir reservoir = reservoirOf(entry.getValue());
+            if (reservoir instanceof HdrLatencyReservoir) {
+                Position position = positions.get(entry.getKey());
+                if (position == null || position.reservoir != reservoir) {
+                    position = new Position((HdrLatencyReservoir) reservoir, ((HdrLatencyReservoir) reservoir).newCursor());
+                }
+                current.put(entry.getKey(), position);
+                HistogramSnapshot snapshot = position.cursor.next();
+                if (snapshot.size() > 0) {
+                    snapshots.put(entry.getKey(), snapshot);
+                }
+            }
+        }
+        // cursors of removed metrics are dropped
+        positions = current;
+        return snapshots;
+    }
+
+    private static Reservoir reservoirOf(Metric metric) {
+        if (metric instanceof TimeWindowTimer) {
+            return ((TimeWindowTimer) metric).getReservoir();
+        } else if (metric instanceof TimeWindowHistogram) {
+            return ((TimeWindowHistogram) metric).getReservoir();
+        }
+        return null;
+    }
+
+    private static final class Position {
+        private final HdrLatencyReservoir reservoir;
+        private final HdrLatencyReservoir.Cursor cursor;
+
+        Position(HdrLatencyReservoir reservoir, HdrLatencyReservoir.Cursor cursor) {
+            this.reservoir = reservoir;
+            this.cursor = cursor;
+        }
+    }
+}
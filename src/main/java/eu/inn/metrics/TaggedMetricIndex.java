@@ -0,0 +1,181 @@
+package eu.inn.metrics;
+
+import com.codahale.metrics.Metric;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An index of tagged metrics by a name and tag pairs.
+ *
+ * Lookups don't take locks and don't allocate: a hash is computed from the hashes of the name and the tags,
+ * which are cached by strings, and entries are compared element by element.
+ * Entries are immutable, updates are rare and rebuild bucket chains under the index lock.
+ *
+ * Different names and tags could be flattened into the same tagged name (e.g. a name with dots),
+ * they share the same registered metric, so all of them are removed together.
+ */
+final class TaggedMetricIndex<T extends Metric> {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile AtomicReferenceArray<Entry<T>> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+    private int size = 0;
+
+    /**
+     * keys of entries by their tagged names, it's guarded by the index lock
+     */
+    private final Map<String, List<Entry<T>>> entriesByTaggedName = new HashMap<>();
+
+    T get(String name, String tagKey, String tagValue) {
+        int hash = hash(hash(name.hashCode(), tagKey), tagValue);
+        AtomicReferenceArray<Entry<T>> table = this.table;
+        for (Entry<T> e = table.get(hash & (table.length() - 1)); e != null; e = e.next) {
+            if (e.hash == hash && e.tags.length == 2 && e.name.equals(name)
+                    && e.tags[0].equals(tagKey) && e.tags[1].equals(tagValue)) {
+                return e.metric;
+            }
+        }
+        return null;
+    }
+
+    T get(String name, String tagKey1, String tagValue1, String tagKey2, String tagValue2) {
+        int hash = hash(hash(hash(hash(name.hashCode(), tagKey1), tagValue1), tagKey2), tagValue2);
+        AtomicReferenceArray<Entry<T>> table = this.table;
+        for (Entry<T> e = table.get(hash & (table.length() - 1)); e != null; e = e.next) {
+            if (e.hash == hash && e.tags.length == 4 && e.name.equals(name)
+                    && e.tags[0].equals(tagKey1) && e.tags[1].equals(tagValue1)
+                    && e.tags[2].equals(tagKey2) && e.tags[3].equals(tagValue2)) {
+                return e.metric;
+            }
+        }
+        return null;
+    }
+
+    T get(String name, String[] tags) {
+        int hash = hash(name, tags);
+        AtomicReferenceArray<Entry<T>> table = this.table;
+        for (Entry<T> e = table.get(hash & (table.length() - 1)); e != null; e = e.next) {
+            if (e.hash == hash && e.name.equals(name) && e.hasTags(tags)) {
+                return e.metric;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the metric or replaces a metric with the same name and tags
+     */
+    synchronized void put(String name, String[] tags, String taggedName, T metric) {
+        int hash = hash(name, tags);
+        removeEntry(hash, name, tags);
+        if (size + 1 > table.length() * 3 / 4) {
+            resize();
+        }
+        int index = hash & (table.length() - 1);
+        table.set(index, new Entry<>(hash, name, tags, taggedName, metric, table.get(index)));
+        size++;
+
+        List<Entry<T>> entries = entriesByTaggedName.get(taggedName);
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            entriesByTaggedName.put(taggedName, entries);
+        }
+        for (Iterator<Entry<T>> iterator = entries.iterator(); iterator.hasNext(); ) {
+            Entry<T> e = iterator.next();
+            if (e.name.equals(name) && e.hasTags(tags)) {
+                iterator.remove();
+            }
+        }
+        // a key doesn't link to a bucket chain, so it doesn't keep replaced chains reachable
+        entries.add(new Entry<>(hash, name, tags, taggedName, metric, null));
+    }
+
+    /**
+     * Removes all entries of the tagged name
+     */
+    synchronized void remove(String taggedName) {
+        List<Entry<T>> entries = entriesByTaggedName.remove(taggedName);
+        if (entries != null) {
+            for (Entry<T> e : entries) {
+                removeEntry(e.hash, e.name, e.tags);
+            }
+        }
+    }
+
+    private void removeEntry(int hash, String name, String[] tags) {
+        int index = hash & (table.length() - 1);
+        Entry<T> head = table.get(index);
+        Entry<T> rebuilt = null;
+        boolean found = false;
+        for (Entry<T> e = head; e != null; e = e.next) {
+            if (!found && e.hash == hash && e.name.equals(name) && e.hasTags(tags)) {
+                found = true;
+            } else {
+                rebuilt = new Entry<>(e.hash, e.name, e.tags, e.taggedName, e.metric, rebuilt);
+            }
+        }
+        if (found) {
+            table.set(index, rebuilt);
+            size--;
+        }
+    }
+
+    private void resize() {
+        AtomicReferenceArray<Entry<T>> resized = new AtomicReferenceArray<>(table.length() * 2);
+        for (int i = 0; i < table.length(); i++) {
+            for (Entry<T> e = table.get(i); e != null; e = e.next) {
+                int index = e.hash & (resized.length() - 1);
+                resized.set(index, new Entry<>(e.hash, e.name, e.tags, e.taggedName, e.metric, resized.get(index)));
+            }
+        }
+        table = resized;
+    }
+
+    private static int hash(String name, String[] tags) {
+        int hash = name.hashCode();
+        for (String tag : tags) {
+            hash = hash(hash, tag);
+        }
+        return hash;
+    }
+
+    private static int hash(int hash, String tag) {
+        return 31 * hash + (tag == null ? 0 : tag.hashCode());
+    }
+
+    private static final class Entry<T> {
+        final int hash;
+        final String name;
+        final String[] tags;
+        final String taggedName;
+        final T metric;
+        final Entry<T> next;
+
+        Entry(int hash, String name, String[] tags, String taggedName, T metric, Entry<T> next) {
+            this.hash = hash;
+            this.name = name;
+            this.tags = tags;
+            this.taggedName = taggedName;
+            this.metric = metric;
+            this.next = next;
+        }
+
+        boolean hasTags(String[] other) {
+            if (tags.length != other.length) {
+                return false;
+            }
+            for (int i = 0; i < tags.length; i++) {
+                if (!tags[i].equals(other[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package eu.inn.metrics;
+
+import com.codahale.metrics.Counter;
+import eu.inn.metrics.common.WindowCounter;
+
+/**
+ * A counter which reports a sum of increments and decrements over a sliding time window,
+ * so it isn't suitable for values like a number of active requests
+ */
+public class TimeWindowCounter extends Counter {
+
+    private final WindowCounter counter;
+
+    public TimeWindowCounter(WindowCounter counter) {
+        this.counter = counter;
+    }
+
+    @Override
+    public void inc() {
+        counter.add(1);
+    }
+
+    @Override
+    public void inc(long n) {
+        counter.add(n);
+    }
+
+    @Override
+    public void dec() {
+        counter.add(-1);
+    }
+
+    @Override
+    public void dec(long n) {
+        counter.add(-n);
+    }
+
+    @Override
+    public long getCount() {
+        return counter.getWindowCount();
+    }
+
+    /**
+     * @return a sum of increments and decrements since the counter has been created
+     */
+    public long getTotalCount() {
+        return counter.getTotalCount();
+    }
+}
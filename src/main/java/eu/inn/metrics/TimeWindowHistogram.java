@@ -0,0 +1,21 @@
+package eu.inn.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Reservoir;
+
+/**
+ * A histogram which gives access to its reservoir, e.g. for reading deltas with {@link DeltaSnapshotCursor}
+ */
+public class TimeWindowHistogram extends Histogram {
+
+    private final Reservoir reservoir;
+
+    public TimeWindowHistogram(Reservoir reservoir) {
+        super(reservoir);
+        this.reservoir = reservoir;
+    }
+
+    public Reservoir getReservoir() {
+        return reservoir;
+    }
+}
@@ -0,0 +1,68 @@
+package eu.inn.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Meter;
+import eu.inn.metrics.common.WindowCounter;
+
+/**
+ * A meter which reports the rate over a sliding time window instead of exponentially weighted moving averages,
+ * so one, five and fifteen minute rates are the same window rate. The count and the mean rate are kept since creation.
+ */
+public class TimeWindowMeter extends Meter {
+
+    private final WindowCounter counter;
+
+    private final Clock clock;
+
+    private final long startTime;
+
+    public TimeWindowMeter(WindowCounter counter) {
+        this(counter, Clock.defaultClock());
+    }
+
+    public TimeWindowMeter(WindowCounter counter, Clock clock) {
+        this.counter = counter;
+        this.clock = clock;
+        this.startTime = clock.getTick();
+    }
+
+    @Override
+    public void mark() {
+        counter.add(1);
+    }
+
+    @Override
+    public void mark(long n) {
+        counter.add(n);
+    }
+
+    @Override
+    public long getCount() {
+        return counter.getTotalCount();
+    }
+
+    @Override
+    public double getMeanRate() {
+        long count = getCount();
+        if (count == 0) {
+            return 0.0;
+        }
+        double elapsed = (clock.getTick() - startTime) / 1e9;
+        return count / elapsed;
+    }
+
+    @Override
+    public double getOneMinuteRate() {
+        return counter.getWindowRate();
+    }
+
+    @Override
+    public double getFiveMinuteRate() {
+        return counter.getWindowRate();
+    }
+
+    @Override
+    public double getFifteenMinuteRate() {
+        return counter.getWindowRate();
+    }
+}
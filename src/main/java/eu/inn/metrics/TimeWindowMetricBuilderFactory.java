@@ -6,10 +6,19 @@ import eu.inn.metrics.common.TimeWindowReservoirBuilder;
 
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Builds metrics which report values over a sliding time window.
+ *
+ * A count of a timer with a counting reservoir is derived from flushed values of the reservoir,
+ * so it lags behind by a flush period, while a count of a meter includes values which haven't been flushed yet.
+ * Rates of both of them are computed over flushed periods.
+ */
 public class TimeWindowMetricBuilderFactory implements MetricBuilderFactory {
 
     private final TimeWindowReservoirBuilder reservoirBuilder;
 
+    private final boolean windowCounters;
+
     public TimeWindowMetricBuilderFactory() {
         this(15, TimeUnit.SECONDS);
     }
@@ -25,13 +34,26 @@ public class TimeWindowMetricBuilderFactory implements MetricBuilderFactory {
     }
 
     public TimeWindowMetricBuilderFactory(TimeWindowReservoirBuilder reservoirBuilder) {
+        this(reservoirBuilder, false);
+    }
+
+    /**
+     * @param windowCounters counters report a sum over the window instead of a sum since creation if it's true,
+     *                       so they aren't suitable for values like a number of active requests
+     */
+    public TimeWindowMetricBuilderFactory(TimeWindowReservoirBuilder reservoirBuilder, boolean windowCounters) {
         this.reservoirBuilder = reservoirBuilder;
+        this.windowCounters = windowCounters;
+    }
+
+    public TimeWindowReservoirBuilder getReservoirBuilder() {
+        return reservoirBuilder;
     }
 
     private final MetricBuilder<Histogram> HISTOGRAMS = new MetricBuilder<Histogram>() {
         @Override
         public Histogram newMetric() {
-            return new Histogram(reservoirBuilder.build());
+            return new TimeWindowHistogram(reservoirBuilder.build());
         }
 
         @Override
@@ -44,7 +66,7 @@ public class TimeWindowMetricBuilderFactory implements MetricBuilderFactory {
     private final MetricBuilder<Timer> TIMERS = new MetricBuilder<Timer>() {
         @Override
         public Timer newMetric() {
-            return new Timer(reservoirBuilder.build());
+            return new TimeWindowTimer(reservoirBuilder.build(), reservoirBuilder.getClock());
         }
 
         @Override
@@ -56,7 +78,7 @@ public class TimeWindowMetricBuilderFactory implements MetricBuilderFactory {
     private final MetricBuilder<Counter> COUNTERS = new MetricBuilder<Counter>() {
         @Override
         public Counter newMetric() {
-            return new Counter();
+            return windowCounters ? new TimeWindowCounter(reservoirBuilder.buildCounter()) : new Counter();
         }
 
         @Override
@@ -68,7 +90,7 @@ public class TimeWindowMetricBuilderFactory implements MetricBuilderFactory {
     private final MetricBuilder<Meter> METERS = new MetricBuilder<Meter>() {
         @Override
         public Meter newMetric() {
-            return new Meter();
+            return new TimeWindowMeter(reservoirBuilder.buildCounter(), reservoirBuilder.getClock());
         }
 
         @Override
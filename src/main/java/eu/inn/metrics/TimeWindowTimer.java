@@ -0,0 +1,102 @@
+package eu.inn.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Timer;
+import eu.inn.metrics.common.CountingReservoir;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timer which gives access to its reservoir, e.g. for reading deltas with {@link DeltaSnapshotCursor}
+ *
+ * If the reservoir counts its values, a call updates only the reservoir:
+ * the count and rates are derived from it, the count lags behind by a flush period
+ * and one, five and fifteen minute rates are the same window rate.
+ * Otherwise the timer updates its meter as well, like a Dropwizard timer does.
+ */
+public class TimeWindowTimer extends Timer {
+
+    private final Reservoir reservoir;
+
+    /**
+     * it's null if the reservoir doesn't count values
+     */
+    private final CountingReservoir counting;
+
+    private final Clock clock;
+
+    private final long startTime;
+
+    public TimeWindowTimer(Reservoir reservoir) {
+        this(reservoir, Clock.defaultClock());
+    }
+
+    public TimeWindowTimer(Reservoir reservoir, Clock clock) {
+        super(reservoir, clock);
+        this.reservoir = reservoir;
+        this.clock = clock;
+        this.startTime = clock.getTick();
+        this.counting = reservoir instanceof CountingReservoir ? (CountingReservoir) reservoir : null;
+    }
+
+    public Reservoir getReservoir() {
+        return reservoir;
+    }
+
+    @Override
+    public void update(long duration, TimeUnit unit) {
+        if (counting == null) {
+            super.update(duration, unit);
+        } else if (duration >= 0) {
+            counting.update(unit.toNanos(duration));
+        }
+    }
+
+    @Override
+    public <T> T time(Callable<T> event) throws Exception {
+        if (counting == null) {
+            return super.time(event);
+        }
+        long start = clock.getTick();
+        try {
+            return event.call();
+        } finally {
+            update(clock.getTick() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return counting == null ? super.getCount() : counting.getTotalCount();
+    }
+
+    @Override
+    public double getMeanRate() {
+        if (counting == null) {
+            return super.getMeanRate();
+        }
+        long count = getCount();
+        if (count == 0) {
+            return 0.0;
+        }
+        double elapsed = (clock.getTick() - startTime) / 1e9;
+        return count / elapsed;
+    }
+
+    @Override
+    public double getOneMinuteRate() {
+        return counting == null ? super.getOneMinuteRate() : counting.getWindowRate();
+    }
+
+    @Override
+    public double getFiveMinuteRate() {
+        return counting == null ? super.getFiveMinuteRate() : counting.getWindowRate();
+    }
+
+    @Override
+    public double getFifteenMinuteRate() {
+        return counting == null ? super.getFifteenMinuteRate() : counting.getWindowRate();
+    }
+}
@@ -0,0 +1,103 @@
+package eu.inn.metrics;
+
+import org.HdrHistogram.EncodableHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Reads files written by {@link WindowLogWriter} and merges intervals of every metric within a time range
+ */
+public class WindowLogReader {
+
+    private final File directory;
+
+    private final String prefix;
+
+    public WindowLogReader(File directory, String prefix) {
+        this.directory = directory;
+        this.prefix = prefix;
+    }
+
+    /**
+     * @return histograms of all metrics which intervals start within the range, by names of metrics
+     */
+    public SortedMap<String, Histogram> read(long startMillis, long endMillis) throws FileNotFoundException {
+        SortedMap<String, Histogram> histograms = new TreeMap<>();
+        for (File file : files(directory, prefix)) {
+            HistogramLogReader reader = new HistogramLogReader(file);
+            try {
+                EncodableHistogram interval;
+                while ((interval = reader.nextAbsoluteIntervalHistogram(startMillis / 1000.0, endMillis / 1000.0)) != null) {
+                    if (interval instanceof Histogram) {
+                        merge(histograms, (Histogram) interval);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return histograms;
+    }
+
+    private static void merge(Map<String, Histogram> histograms, Histogram interval) {
+        String name = WindowLogWriter.decodeTag(interval.getTag());
+        Histogram merged = histograms.get(name);
+        if (merged == null) {
+            interval.setAutoResize(true);
+            histograms.put(name, interval);
+        } else {
+            merged.add(interval);
+        }
+    }
+
+    /**
+     * @return log files in the order they have been written
+     */
+    static List<File> files(File directory, String prefix) {
+        SortedMap<Integer, File> files = new TreeMap<>();
+        File[] listed = directory.listFiles();
+        if (listed != null) {
+            for (File file : listed) {
+                int index = fileIndex(file.getName(), prefix);
+                if (index > 0) {
+                    files.put(index, file);
+                }
+            }
+        }
+        return new ArrayList<>(files.values());
+    }
+
+    static int lastFileIndex(File directory, String prefix) {
+        int last = 0;
+        File[] listed = directory.listFiles();
+        if (listed != null) {
+            for (File file : listed) {
+                last = Math.max(last, fileIndex(file.getName(), prefix));
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @return an index of a file named like prefix.index.hlog or 0
+     */
+    private static int fileIndex(String name, String prefix) {
+        if (!name.startsWith(prefix + ".") || !name.endsWith(WindowLogWriter.SUFFIX)) {
+            return 0;
+        }
+        String index = name.substring(prefix.length() + 1, name.length() - WindowLogWriter.SUFFIX.length());
+        try {
+            return Integer.parseInt(index);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package eu.inn.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import eu.inn.metrics.common.FlushListener;
+import eu.inn.metrics.common.FlushScheduler;
+import eu.inn.metrics.hdr.HistogramSnapshot;
+import org.HdrHistogram.HistogramLogWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends values flushed by HDR timers and histograms of a registry to HdrHistogram log files,
+ * every metric is written as an interval histogram tagged by its name.
+ * Log tags can't contain commas and whitespaces, so they are percent-encoded in tags along with '%' itself.
+ * Files are rotated by size and could be read back with {@link WindowLogReader}.
+ *
+ * Values flushed before the writer has been built aren't written, every interval is stamped with times of flushes of its reservoir.
+ * The writer keeps writing while it's reachable and isn't closed.
+ * Files are written by a scheduler of log writers, so a slow disk doesn't delay flushes of reservoirs.
+ * If a write or a rotation fails, the writer is closed and the failure is thrown from {@link #flush()}.
+ */
+public class WindowLogWriter implements FlushListener, Closeable {
+
+    static final String SUFFIX = ".hlog";
+
+    /**
+     * blocking file writes aren't done by threads of the default scheduler which flushes reservoirs
+     */
+    private static final FlushScheduler writersScheduler = new FlushScheduler(1);
+
+    private final DeltaSnapshotCursor cursor;
+
+    private final File directory;
+
+    private final String prefix;
+
+    private final long maxFileSize;
+
+    private final Clock clock;
+
+    private final FlushScheduler.Registration registration;
+
+    private int fileIndex;
+
+    private CountingOutputStream output;
+
+    private PrintStream stream;
+
+    private HistogramLogWriter logWriter;
+
+    private boolean closed = false;
+
+    private WindowLogWriter(MetricRegistry registry, File directory, String prefix, long maxFileSize,
+                            FlushScheduler flushScheduler, Clock clock, long period, TimeUnit unit) throws IOException {
+        this.cursor = new DeltaSnapshotCursor(registry, true);
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxFileSize = maxFileSize;
+        this.clock = clock;
+        this.fileIndex = WindowLogReader.lastFileIndex(directory, prefix);
+        openNextFile();
+        this.registration = flushScheduler.register(this, period, unit);
+    }
+
+    /**
+     * Writes values flushed since the previous call, it's called periodically by the scheduler
+     */
+    @Override
+    public synchronized void flush() {
+        if (closed) {
+            return;
+        }
+        for (Map.Entry<String, HistogramSnapshot> entry : cursor.next().entrySet()) {
+            HistogramSnapshot snapshot = entry.getValue();
+            snapshot.writeInterval(logWriter, encodeTag(entry.getKey()),
+                    snapshot.getStartTimeStamp() / 1000.0, snapshot.getEndTimeStamp() / 1000.0);
+        }
+        stream.flush();
+        if (stream.checkError()) {
+            // PrintStream swallows IOExceptions, so an error is only flagged
+            fail("Can't write a histogram log in " + directory, null);
+        }
+        if (output.count >= maxFileSize) {
+            logWriter.close();
+            try {
+                openNextFile();
+            } catch (IOException e) {
+                fail("Can't rotate a histogram log in " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * @return true if the writer has been closed or has failed
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            registration.cancel();
+            logWriter.close();
+        }
+    }
+
+    private void fail(String message, IOException cause) {
+        close();
+        throw new IllegalStateException(message, cause);
+    }
+
+    private void openNextFile() throws IOException {
+        fileIndex++;
+        File file = new File(directory, prefix + "." + fileIndex + SUFFIX);
+        output = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        stream = new PrintStream(output, false, "UTF-8");
+        logWriter = new HistogramLogWriter(stream);
+        logWriter.outputLogFormatVersion();
+        logWriter.outputStartTime(clock.getTime());
+        logWriter.outputLegend();
+    }
+
+    /**
+     * @return the name where commas, whitespaces and '%' are replaced by %XX, or by %uXXXX if a code is above 0xFF
+     */
+    static String encodeTag(String name) {
+        StringBuilder tag = null;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == ',' || c == '%' || Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                if (tag == null) {
+                    tag = new StringBuilder(name.length() + 8).append(name, 0, i);
+                }
+                tag.append(c > 0xFF ? String.format("%%u%04X", (int) c) : String.format("%%%02X", (int) c));
+            } else if (tag != null) {
+                tag.append(c);
+            }
+        }
+        return tag == null ? name : tag.toString();
+    }
+
+    static String decodeTag(String tag) {
+        int escape = tag.indexOf('%');
+        if (escape < 0) {
+            return tag;
+        }
+        StringBuilder name = new StringBuilder(tag.length()).append(tag, 0, escape);
+        for (int i = escape; i < tag.length(); i++) {
+            char c = tag.charAt(i);
+            if (c != '%') {
+                name.append(c);
+            } else if (tag.charAt(i + 1) == 'u') {
+                name.append((char) Integer.parseInt(tag.substring(i + 2, i + 6), 16));
+                i += 5;
+            } else {
+                name.append((char) Integer.parseInt(tag.substring(i + 1, i + 3), 16));
+                i += 2;
+            }
+        }
+        return name.toString();
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    public static Builder builder(MetricRegistry registry, File directory) {
+        return new Builder(registry, directory);
+    }
+
+    public static class Builder {
+
+        private final MetricRegistry registry;
+
+        private final File directory;
+
+        private String prefix = "metrics";
+
+        private long maxFileSize = 64 * 1024 * 1024;
+
+        private long period = 1;
+
+        private TimeUnit unit = TimeUnit.SECONDS;
+
+        private FlushScheduler flushScheduler = writersScheduler;
+
+        /**
+         * the clock of the flush scheduler is used if it's null
+         */
+        private Clock clock;
+
+        private Builder(MetricRegistry registry, File directory) {
+            this.registry = registry;
+            this.directory = directory;
+        }
+
+        public Builder prefix(String prefix) {
+            this.prefix = prefix;
+            return this;
+        }
+
+        /**
+         * A file is rotated as soon as it becomes larger than the size
+         */
+        public Builder maxFileSize(long maxFileSize) {
+            if (maxFileSize <= 0) {
+                throw new IllegalArgumentException("maxFileSize should be positive integer");
+            }
+            this.maxFileSize = maxFileSize;
+            return this;
+        }
+
+        /**
+         * It should be the flush period of reservoirs, so every interval is written separately
+         */
+        public Builder writeEvery(long period, TimeUnit unit) {
+            if (period <= 0) {
+                throw new IllegalArgumentException("period duration should be positive integer");
+            }
+            this.period = period;
+            this.unit = unit;
+            return this;
+        }
+
+        /**
+         * By default files are written by a scheduler of log writers,
+         * a {@link eu.inn.metrics.common.ManualFlushScheduler} of reservoirs makes writes deterministic
+         */
+        public Builder flushScheduler(FlushScheduler flushScheduler) {
+            if (flushScheduler == null) {
+                throw new IllegalArgumentException("flushScheduler should be non-null");
+            }
+            this.flushScheduler = flushScheduler;
+            return this;
+        }
+
+        /**
+         * A clock of start times of files, it's the clock of the flush scheduler by default.
+         * Intervals are stamped with times of flushes of reservoirs.
+         */
+        public Builder clock(Clock clock) {
+            if (clock == null) {
+                throw new IllegalArgumentException("clock should be non-null");
+            }
+            this.clock = clock;
+            return this;
+        }
+
+        public WindowLogWriter build() throws IOException {
+            return new WindowLogWriter(registry, directory, prefix, maxFileSize, flushScheduler,
+                    clock != null ? clock : flushScheduler.getClock(), period, unit);
+        }
+    }
+}
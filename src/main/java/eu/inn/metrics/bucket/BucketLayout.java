@@ -0,0 +1,57 @@
+package eu.inn.metrics.bucket;
+
+/**
+ * Maps values to log-linear buckets: every power of two range is split into 2^precisionBits equal sub-buckets,
+ * so a bucket is narrower than 1/2^precisionBits of its values. Values below 2^precisionBits get their own buckets.
+ * Values out of [0, highestTrackableValue] are clamped to the nearest bound.
+ */
+final class BucketLayout {
+
+    private final int precisionBits;
+
+    private final int subBucketCount;
+
+    private final long highestTrackableValue;
+
+    private final int bucketCount;
+
+    BucketLayout(int precisionBits, long highestTrackableValue) {
+        this.precisionBits = precisionBits;
+        this.subBucketCount = 1 << precisionBits;
+        this.highestTrackableValue = highestTrackableValue;
+        this.bucketCount = index(highestTrackableValue) + 1;
+    }
+
+    long trackable(long value) {
+        return Math.min(Math.max(value, 0), highestTrackableValue);
+    }
+
+    int index(long value) {
+        long trackable = trackable(value);
+        if (trackable < subBucketCount) {
+            return (int) trackable;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(trackable) - precisionBits;
+        return ((shift + 1) << precisionBits) + (int) ((trackable >>> shift) - subBucketCount);
+    }
+
+    long lowestValue(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = (index >>> precisionBits) - 1;
+        return ((long) (index & (subBucketCount - 1)) + subBucketCount) << shift;
+    }
+
+    long highestValue(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = (index >>> precisionBits) - 1;
+        return lowestValue(index) + (1L << shift) - 1;
+    }
+
+    int getBucketCount() {
+        return bucketCount;
+    }
+}
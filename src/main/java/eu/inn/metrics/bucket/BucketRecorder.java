@@ -0,0 +1,49 @@
+package eu.inn.metrics.bucket;
+
+import org.HdrHistogram.WriterReaderPhaser;
+
+/**
+ * Records values into one of two interval buckets, they are swapped on every flush.
+ * A writer-reader phaser lets the flusher wait for writers of the swapped buckets without locking writers.
+ */
+final class BucketRecorder {
+
+    private final WriterReaderPhaser phaser = new WriterReaderPhaser();
+
+    private volatile IntervalBuckets active;
+
+    /**
+     * it's guarded by the phaser reader lock
+     */
+    private IntervalBuckets inactive;
+
+    BucketRecorder(BucketLayout layout, int stripes) {
+        this.active = new IntervalBuckets(layout, stripes);
+        this.inactive = new IntervalBuckets(layout, stripes);
+    }
+
+    void record(long value) {
+        long criticalValue = phaser.writerCriticalSectionEnter();
+        try {
+            active.record(value);
+        } finally {
+            phaser.writerCriticalSectionExit(criticalValue);
+        }
+    }
+
+    /**
+     * @return false if there were no values since the previous call
+     */
+    boolean drainInto(BucketWindow.Slot slot) {
+        phaser.readerLock();
+        try {
+            IntervalBuckets drained = active;
+            active = inactive;
+            inactive = drained;
+            phaser.flipPhase();
+            return drained.drainInto(slot);
+        } finally {
+            phaser.readerUnlock();
+        }
+    }
+}
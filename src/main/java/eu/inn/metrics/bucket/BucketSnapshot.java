@@ -0,0 +1,127 @@
+package eu.inn.metrics.bucket;
+
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A snapshot of log-linear bucket counts. The count, the sum (so the mean), the min and the max are exact
+ * for values within the trackable range, values out of it are clamped like in buckets, a quantile is the highest value of its bucket limited by the min and the max.
+ */
+public final class BucketSnapshot extends Snapshot {
+
+    private final BucketLayout layout;
+
+    private final long[] counts;
+
+    private final long count;
+
+    private final long sum;
+
+    private final long min;
+
+    private final long max;
+
+    BucketSnapshot(BucketLayout layout, long[] counts, long count, long sum, long min, long max) {
+        this.layout = layout;
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    @Override
+    public double getValue(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.min(Math.max((long) Math.ceil(quantile * count), 1), count);
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i];
+            if (total >= rank) {
+                return value(i);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public long[] getValues() {
+        long[] values = new long[size()];
+        int position = 0;
+        for (int i = 0; i < counts.length && position < values.length; i++) {
+            if (counts[i] != 0) {
+                int to = (int) Math.min(values.length, position + counts[i]);
+                Arrays.fill(values, position, to, value(i));
+                position = to;
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    @Override
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    @Override
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * it's the population standard deviation like {@link eu.inn.metrics.hdr.HistogramSnapshot#getStdDev()} returns,
+     * it's computed with middles of buckets
+     */
+    @Override
+    public double getStdDev() {
+        if (count == 0) {
+            return 0;
+        }
+        double mean = getMean();
+        double squares = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                double middle = Math.min(Math.max((layout.lowestValue(i) + layout.highestValue(i)) / 2.0, min), max);
+                squares += (middle - mean) * (middle - mean) * counts[i];
+            }
+        }
+        return Math.sqrt(squares / count);
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+        try (PrintWriter p = new PrintWriter(new OutputStreamWriter(output, UTF_8))) {
+            for (int i = 0; i < counts.length; i++) {
+                String line = value(i) + System.lineSeparator();
+                for (long j = 0; j < counts[i]; j++) {
+                    p.write(line);
+                }
+            }
+        }
+    }
+
+    private long value(int index) {
+        return Math.min(Math.max(layout.highestValue(index), min), max);
+    }
+}
@@ -0,0 +1,102 @@
+package eu.inn.metrics.bucket;
+
+/**
+ * A ring of per-flush bucket counts with running sums of all of them.
+ * All arrays are allocated upfront, so the memory of a window is fixed.
+ * It isn't thread-safe, the owner should guard it.
+ */
+final class BucketWindow {
+
+    static final class Slot {
+        final long[] counts;
+        long count;
+        long sum;
+        long min;
+        long max;
+
+        Slot(int bucketCount) {
+            this.counts = new long[bucketCount];
+        }
+    }
+
+    private final BucketLayout layout;
+
+    private final Slot[] ring;
+
+    private int next = 0;
+
+    private final long[] counts;
+
+    private long count = 0;
+
+    private long sum = 0;
+
+    private long min = 0;
+
+    private long max = 0;
+
+    /**
+     * a number of values which have been ever flushed into the window
+     */
+    private long flushedCount = 0;
+
+    BucketWindow(BucketLayout layout, int sinkSize) {
+        this.layout = layout;
+        this.ring = new Slot[sinkSize];
+        for (int i = 0; i < sinkSize; i++) {
+            ring[i] = new Slot(layout.getBucketCount());
+        }
+        this.counts = new long[layout.getBucketCount()];
+    }
+
+    /**
+     * Moves values from the recorder into the oldest slot
+     *
+     * @return false if the window hasn't been changed
+     */
+    boolean flush(BucketRecorder recorder) {
+        Slot slot = ring[next];
+        next = (next + 1) % ring.length;
+        boolean evicted = slot.count != 0;
+        if (evicted) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] -= slot.counts[i];
+            }
+            count -= slot.count;
+            sum -= slot.sum;
+        }
+        boolean recorded = recorder.drainInto(slot);
+        if (recorded) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += slot.counts[i];
+            }
+            count += slot.count;
+            sum += slot.sum;
+            flushedCount += slot.count;
+        }
+        if (!evicted && !recorded) {
+            return false;
+        }
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+        for (Slot s : ring) {
+            if (s.count != 0) {
+                min = Math.min(min, s.min);
+                max = Math.max(max, s.max);
+            }
+        }
+        return true;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getFlushedCount() {
+        return flushedCount;
+    }
+
+    BucketSnapshot snapshot() {
+        return new BucketSnapshot(layout, counts.clone(), count, sum, min, max);
+    }
+}
@@ -0,0 +1,97 @@
+package eu.inn.metrics.bucket;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bucket counts with an exact sum, min and max of values recorded during a flush period.
+ * The sum, the min and the max are spread over padded stripes chosen by a thread hash,
+ * so concurrent writers don't update the same cache line.
+ */
+final class IntervalBuckets {
+
+    /**
+     * cells of a stripe take a whole cache line
+     */
+    private final static int STRIDE = 8;
+
+    private final static int SUM = 0;
+
+    private final static int MIN = 1;
+
+    private final static int MAX = 2;
+
+    private final BucketLayout layout;
+
+    private final AtomicLongArray counts;
+
+    private final AtomicLongArray cells;
+
+    private final int mask;
+
+    IntervalBuckets(BucketLayout layout, int stripes) {
+        this.layout = layout;
+        this.counts = new AtomicLongArray(layout.getBucketCount());
+        this.cells = new AtomicLongArray(stripes * STRIDE);
+        this.mask = stripes - 1;
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            cells.set(stripe * STRIDE + MIN, Long.MAX_VALUE);
+            cells.set(stripe * STRIDE + MAX, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * the value is clamped to the trackable range before it's counted, so the sum, the min and the max
+     * agree with the buckets
+     */
+    void record(long recorded) {
+        long value = layout.trackable(recorded);
+        counts.incrementAndGet(layout.index(value));
+        int stripe = stripe() * STRIDE;
+        cells.addAndGet(stripe + SUM, value);
+        long min;
+        while (value < (min = cells.get(stripe + MIN)) && !cells.compareAndSet(stripe + MIN, min, value)) {
+        }
+        long max;
+        while (value > (max = cells.get(stripe + MAX)) && !cells.compareAndSet(stripe + MAX, max, value)) {
+        }
+    }
+
+    /**
+     * Moves recorded values into the slot and resets the buckets, it's called only when there are no writers
+     *
+     * @return false if there were no values
+     */
+    boolean drainInto(BucketWindow.Slot slot) {
+        long count = 0;
+        for (int i = 0; i < slot.counts.length; i++) {
+            long bucketCount = counts.get(i);
+            slot.counts[i] = bucketCount;
+            if (bucketCount != 0) {
+                counts.set(i, 0);
+                count += bucketCount;
+            }
+        }
+        long sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int stripe = 0; stripe < cells.length(); stripe += STRIDE) {
+            sum += cells.get(stripe + SUM);
+            min = Math.min(min, cells.get(stripe + MIN));
+            max = Math.max(max, cells.get(stripe + MAX));
+            cells.set(stripe + SUM, 0);
+            cells.set(stripe + MIN, Long.MAX_VALUE);
+            cells.set(stripe + MAX, Long.MIN_VALUE);
+        }
+        slot.count = count;
+        slot.sum = sum;
+        slot.min = min;
+        slot.max = max;
+        return count != 0;
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,136 @@
+package eu.inn.metrics.bucket;
+
+import eu.inn.metrics.common.FlushScheduler;
+import eu.inn.metrics.common.TimeWindowCountingReservoir;
+import eu.inn.metrics.common.TimeWindowReservoirBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sliding time window reservoir of log-linear bucket counts.
+ *
+ * Every flush period values are recorded into primitive bucket arrays without allocations,
+ * on flush they are moved into a preallocated ring which keeps running sums of the whole window,
+ * so the memory of a reservoir is fixed and a snapshot is a copy of a single array.
+ */
+public class LogLinearBucketReservoir extends TimeWindowCountingReservoir<BucketRecorder, BucketSnapshot> {
+
+    private final static BucketSnapshot emptySnapshot = new BucketSnapshot(new BucketLayout(0, 0), new long[1], 0, 0, 0, 0);
+
+    private final BucketLayout layout;
+
+    private final int stripes;
+
+    /**
+     * it's guarded by the windowLock, it's null while the reservoir hibernates
+     */
+    private BucketWindow window;
+
+    /**
+     * @param precisionBits every power of two range is split into 2^precisionBits buckets
+     * @param highestTrackableValue higher values are recorded as this one
+     * @param stripes a number of stripes of writers, it's rounded up to a power of two
+     */
+    public LogLinearBucketReservoir(int precisionBits, long highestTrackableValue, int stripes,
+                                    long flushPeriod, TimeUnit flushUnit, int sinkSize) {
+        this(precisionBits, highestTrackableValue, stripes, FlushScheduler.getDefault(), flushPeriod, flushUnit, sinkSize, false);
+    }
+
+    LogLinearBucketReservoir(int precisionBits, long highestTrackableValue, int stripes, FlushScheduler flushScheduler,
+                             long flushPeriod, TimeUnit flushUnit, int sinkSize, boolean hibernation) {
+        super(emptySnapshot, flushScheduler, flushPeriod, flushUnit, sinkSize, hibernation);
+        this.layout = new BucketLayout(precisionBits, highestTrackableValue);
+        int size = Integer.highestOneBit(stripes);
+        this.stripes = size < stripes ? size << 1 : size;
+        start();
+    }
+
+    @Override
+    protected BucketRecorder newWindow() {
+        window = new BucketWindow(layout, sinkSize);
+        return new BucketRecorder(layout, stripes);
+    }
+
+    @Override
+    protected boolean flushWindow(BucketRecorder recorder) {
+        return window.flush(recorder);
+    }
+
+    @Override
+    protected void dropWindow(BucketRecorder recorder) {
+        window = null;
+    }
+
+    @Override
+    protected void record(BucketRecorder recorder, long value) {
+        recorder.record(value);
+    }
+
+    @Override
+    protected BucketSnapshot snapshotWindow() {
+        return window.snapshot();
+    }
+
+    @Override
+    protected long countWindow() {
+        return window.getCount();
+    }
+
+    @Override
+    protected long countFlushed() {
+        return window.getFlushedCount();
+    }
+
+    public static LogLinearBucketReservoir.Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder extends TimeWindowReservoirBuilder<LogLinearBucketReservoir> {
+
+        private int precisionBits = 5;
+
+        private long highestTrackableValue = TimeUnit.HOURS.toNanos(1);
+
+        private int stripes = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * @param precisionBits every power of two range is split into 2^precisionBits buckets,
+         *                      e.g. 5 bits keep quantiles within 3% of recorded values
+         */
+        public Builder precisionBits(int precisionBits) {
+            if (precisionBits < 1 || precisionBits > 16) {
+                throw new IllegalArgumentException("precisionBits should be between 1 and 16");
+            }
+            this.precisionBits = precisionBits;
+            return this;
+        }
+
+        /**
+         * Higher values are recorded as this one, it's an hour in nanoseconds by default
+         */
+        public Builder highestTrackableValue(long highestTrackableValue) {
+            if (highestTrackableValue <= 0) {
+                throw new IllegalArgumentException("highestTrackableValue should be positive integer");
+            }
+            this.highestTrackableValue = highestTrackableValue;
+            return this;
+        }
+
+        /**
+         * @param stripes a number of stripes of writers, it's rounded up to a power of two
+         */
+        public Builder stripes(int stripes) {
+            if (stripes <= 0) {
+                throw new IllegalArgumentException("stripes should be positive integer");
+            }
+            this.stripes = stripes;
+            return this;
+        }
+
+        public LogLinearBucketReservoir build() {
+            int sinkSize = (int) Math.ceil((double) windowUnit.toNanos(window) / flushUnit.toNanos(flushPeriod));
+            return new LogLinearBucketReservoir(precisionBits, highestTrackableValue, stripes,
+                    flushScheduler, flushPeriod, flushUnit, sinkSize, hibernation);
+        }
+    }
+}
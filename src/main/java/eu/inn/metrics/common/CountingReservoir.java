@@ -0,0 +1,20 @@
+package eu.inn.metrics.common;
+
+import com.codahale.metrics.Reservoir;
+
+/**
+ * A reservoir which counts every value it records, so a timer could derive its count and rates
+ * from the reservoir instead of updating a meter on every call
+ */
+public interface CountingReservoir extends Reservoir {
+
+    /**
+     * @return a number of values which have been flushed since the reservoir has been created
+     */
+    public long getTotalCount();
+
+    /**
+     * @return a number of values per second over the window, or over flushed periods if the reservoir is younger than the window
+     */
+    public double getWindowRate();
+}
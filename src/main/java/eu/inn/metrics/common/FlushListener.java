@@ -0,0 +1,9 @@
+package eu.inn.metrics.common;
+
+/**
+ * A periodic task registered in a {@link FlushScheduler}
+ */
+public interface FlushListener {
+
+    public void flush();
+}
@@ -0,0 +1,188 @@
+package eu.inn.metrics.common;
+
+import com.codahale.metrics.Clock;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Flushes all registered listeners with one scheduled tick per a flush period
+ * instead of a scheduled task per a reservoir.
+ *
+ * Listeners are held through weak references, so a reservoir which isn't reachable anymore
+ * (e.g. it was removed from a registry) is dropped on the next tick.
+ * Listeners are spread over a few stripes; if there are a lot of them
+ * the stripes are walked in parallel by the scheduler threads.
+ */
+public class FlushScheduler {
+
+    private final static int PARALLEL_FLUSH_THRESHOLD = 1024;
+
+    private final static FlushScheduler defaultScheduler = new FlushScheduler(
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+
+    private final ScheduledExecutorService executor;
+
+    private final int parallelism;
+
+    private final ConcurrentMap<Long, Tick> ticks = new ConcurrentHashMap<>();
+
+    public FlushScheduler(int parallelism) {
+        this(parallelism, Executors.newScheduledThreadPool(parallelism, new NamedThreadFactory()));
+    }
+
+    /**
+     * @param executor it could be null if {@link #schedule} is overridden and a tick doesn't need more than one stripe
+     */
+    FlushScheduler(int parallelism, ScheduledExecutorService executor) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism should be positive integer");
+        }
+        this.parallelism = parallelism;
+        this.executor = executor;
+    }
+
+    public static FlushScheduler getDefault() {
+        return defaultScheduler;
+    }
+
+    /**
+     * @return a clock which goes along with flushes of the scheduler, it's the wall clock
+     */
+    public Clock getClock() {
+        return Clock.defaultClock();
+    }
+
+    /**
+     * The scheduler holds only a weak reference to the listener,
+     * so the caller should keep a strong one as long as the listener has to be flushed
+     */
+    public Registration register(FlushListener listener, long period, TimeUnit unit) {
+        long periodNanos = unit.toNanos(period);
+        Tick tick = ticks.get(periodNanos);
+        if (tick == null) {
+            Tick created = new Tick();
+            tick = ticks.putIfAbsent(periodNanos, created);
+            if (tick == null) {
+                tick = created;
+                schedule(tick, periodNanos);
+            }
+        }
+        return tick.add(listener);
+    }
+
+    /**
+     * Runs the tick of all listeners with the period once per the period
+     */
+    void schedule(Runnable tick, long periodNanos) {
+        executor.scheduleAtFixedRate(tick, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    int registrations() {
+        int count = 0;
+        for (Tick tick : ticks.values()) {
+            count += tick.size.get();
+        }
+        return count;
+    }
+
+    public static final class Registration extends WeakReference<FlushListener> {
+
+        private Registration(FlushListener listener) {
+            super(listener);
+        }
+
+        /**
+         * Stops flushing the listener, it's removed from the scheduler on the next tick
+         */
+        public void cancel() {
+            clear();
+        }
+    }
+
+    private final class Tick implements Runnable {
+
+        private final Stripe[] stripes = new Stripe[parallelism];
+
+        private final AtomicInteger size = new AtomicInteger(0);
+
+        private final AtomicInteger nextStripe = new AtomicInteger(0);
+
+        Tick() {
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new Stripe(this);
+            }
+        }
+
+        Registration add(FlushListener listener) {
+            Registration registration = new Registration(listener);
+            int stripe = (nextStripe.getAndIncrement() & Integer.MAX_VALUE) % stripes.length;
+            size.incrementAndGet();
+            stripes[stripe].registrations.add(registration);
+            return registration;
+        }
+
+        @Override
+        public void run() {
+            if (size.get() < PARALLEL_FLUSH_THRESHOLD) {
+                for (Stripe stripe : stripes) {
+                    stripe.run();
+                }
+            } else {
+                for (int i = 1; i < stripes.length; i++) {
+                    executor.execute(stripes[i]);
+                }
+                stripes[0].run();
+            }
+        }
+    }
+
+    private final static class Stripe implements Runnable {
+
+        private final Tick tick;
+
+        private final ConcurrentLinkedQueue<Registration> registrations = new ConcurrentLinkedQueue<>();
+
+        /**
+         * prevents concurrent walks if the previous tick hasn't finished yet
+         */
+        private final AtomicBoolean busy = new AtomicBoolean(false);
+
+        Stripe(Tick tick) {
+            this.tick = tick;
+        }
+
+        @Override
+        public void run() {
+            if (!busy.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                Iterator<Registration> iterator = registrations.iterator();
+                while (iterator.hasNext()) {
+                    FlushListener listener = iterator.next().get();
+                    if (listener == null) {
+                        iterator.remove();
+                        tick.size.decrementAndGet();
+                    } else {
+                        flush(listener);
+                    }
+                }
+            } finally {
+                busy.set(false);
+            }
+        }
+
+        private static void flush(FlushListener listener) {
+            try {
+                listener.flush();
+            } catch (RuntimeException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+}
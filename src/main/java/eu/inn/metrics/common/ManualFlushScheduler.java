@@ -0,0 +1,108 @@
+package eu.inn.metrics.common;
+
+import com.codahale.metrics.Clock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A flush scheduler driven by a virtual clock instead of threads: listeners are flushed only by {@link #advance},
+ * which moves the clock forward and runs every tick that falls due, in the order of their deadlines.
+ *
+ * Reservoirs built with the scheduler and its {@link #getClock() clock} behave deterministically,
+ * so tests don't need to sleep and hours of traffic could be replayed in seconds.
+ */
+public class ManualFlushScheduler extends FlushScheduler {
+
+    private final List<ScheduledTick> ticks = new ArrayList<>();
+
+    private long now = 0;
+
+    private final Clock clock = new Clock() {
+        @Override
+        public long getTick() {
+            return currentTick();
+        }
+
+        @Override
+        public long getTime() {
+            return TimeUnit.NANOSECONDS.toMillis(currentTick());
+        }
+    };
+
+    public ManualFlushScheduler() {
+        super(1, null);
+    }
+
+    /**
+     * @return a clock which shows the virtual time of the scheduler, it starts from 0
+     */
+    @Override
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Moves the virtual time forward and runs every tick which falls due, the clock shows a deadline of a tick while it runs
+     */
+    public void advance(long time, TimeUnit unit) {
+        if (time < 0) {
+            throw new IllegalArgumentException("time shouldn't be negative");
+        }
+        long target = currentTick() + unit.toNanos(time);
+        while (true) {
+            ScheduledTick next = nextTick(target);
+            if (next == null) {
+                break;
+            }
+            next.tick.run();
+        }
+        synchronized (this) {
+            now = target;
+        }
+    }
+
+    @Override
+    void schedule(Runnable tick, long periodNanos) {
+        synchronized (this) {
+            ticks.add(new ScheduledTick(tick, periodNanos, now + periodNanos));
+        }
+    }
+
+    private synchronized long currentTick() {
+        return now;
+    }
+
+    /**
+     * @return a tick with the earliest deadline up to the target, the clock is moved to its deadline
+     */
+    private synchronized ScheduledTick nextTick(long target) {
+        ScheduledTick next = null;
+        for (ScheduledTick tick : ticks) {
+            if (tick.deadline <= target && (next == null || tick.deadline < next.deadline)) {
+                next = tick;
+            }
+        }
+        if (next != null) {
+            now = next.deadline;
+            next.deadline += next.periodNanos;
+        }
+        return next;
+    }
+
+    private static final class ScheduledTick {
+
+        private final Runnable tick;
+
+        private final long periodNanos;
+
+        private long deadline;
+
+        ScheduledTick(Runnable tick, long periodNanos, long deadline) {
+            this.tick = tick;
+            this.periodNanos = periodNanos;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package eu.inn.metrics.common;
+
+import org.HdrHistogram.WriterReaderPhaser;
+
+/**
+ * Hands a recorder of a time window reservoir over between writers and the flusher,
+ * and lets the reservoir hibernate when its whole window is empty.
+ *
+ * A flush which finds the window idle detaches the recorder from writers and flips the phaser,
+ * so writers which have read the recorder before leave their critical sections
+ * and the flush drains all their values. Then the reservoir hibernates, or the recorder is attached back
+ * if a late value has been drained. Writers enter critical sections only if hibernation is enabled,
+ * otherwise the recorder is never detached.
+ *
+ * All callbacks are called under the lock of the reservoir.
+ *
+ * @param <R> a type of a recorder
+ */
+public abstract class RecorderHandoff<R> {
+
+    private final Object lock;
+
+    private final boolean hibernation;
+
+    private final WriterReaderPhaser phaser = new WriterReaderPhaser();
+
+    /**
+     * it's null while the reservoir hibernates or while the flusher drains a detached recorder
+     */
+    private volatile R recorder;
+
+    /**
+     * the window was empty after the previous flush, it's guarded by the lock
+     */
+    private boolean idle = false;
+
+    /**
+     * @param lock a lock of the reservoir which guards its window
+     */
+    protected RecorderHandoff(Object lock, boolean hibernation) {
+        this.lock = lock;
+        this.hibernation = hibernation;
+    }
+
+    /**
+     * Creates buffers of the reservoir and registers its flusher
+     *
+     * @return a new recorder
+     */
+    protected abstract R wakeUp();
+
+    /**
+     * Moves values of the recorder into the window
+     *
+     * @return true if the window is empty
+     */
+    protected abstract boolean drain(R recorder);
+
+    /**
+     * Drops buffers of the reservoir, releases the recorder and cancels the flusher
+     */
+    protected abstract void hibernate(R recorder);
+
+    protected abstract void record(R recorder, long value);
+
+    /**
+     * It should be called once the reservoir is constructed
+     */
+    public final void start() {
+        synchronized (lock) {
+            recorder = wakeUp();
+        }
+    }
+
+    public final void update(long value) {
+        if (!hibernation) {
+            record(recorder, value);
+            return;
+        }
+        while (true) {
+            long stamp = phaser.writerCriticalSectionEnter();
+            try {
+                R current = recorder;
+                if (current != null) {
+                    record(current, value);
+                    return;
+                }
+            } finally {
+                phaser.writerCriticalSectionExit(stamp);
+            }
+            // the lock isn't taken inside a critical section, the flusher waits for critical sections under the lock
+            synchronized (lock) {
+                if (recorder == null) {
+                    idle = false;
+                    recorder = wakeUp();
+                }
+            }
+        }
+    }
+
+    /**
+     * It's called by the flusher of the reservoir
+     */
+    public final void flush() {
+        synchronized (lock) {
+            R current = recorder;
+            if (current == null) {
+                return;
+            }
+            boolean detached = hibernation && idle;
+            if (detached) {
+                recorder = null;
+                phaser.readerLock();
+                try {
+                    phaser.flipPhase();
+                } finally {
+                    phaser.readerUnlock();
+                }
+            }
+            idle = drain(current);
+            if (detached && idle) {
+                hibernate(current);
+            } else if (detached) {
+                // a late value has been drained
+                recorder = current;
+            }
+        }
+    }
+
+    /**
+     * @return true if the reservoir has dropped its buffers and isn't flushed until the next update
+     */
+    public final boolean isHibernating() {
+        synchronized (lock) {
+            return recorder == null;
+        }
+    }
+}
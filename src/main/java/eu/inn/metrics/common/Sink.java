@@ -2,93 +2,114 @@ package eu.inn.metrics.common;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
-
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-size ring of the latest elements, an empty element is stored as null.
+ *
+ * The sink supports a single writer and any number of readers. Readers don't take locks and don't copy the ring,
+ * they see a weakly consistent view: if the writer slides the sink during a walk,
+ * the oldest elements could be replaced by the newest ones.
+ */
 public class Sink<T> {
 
     private final int sinkSize;
 
-    private final LinkedBlockingQueue<Option<T>> sink;
+    private final AtomicReferenceArray<T> slots;
+
+    /**
+     * a number of elements (including empty ones) which have been ever inserted,
+     * it's written only by the writer after a slot is updated
+     */
+    private volatile long insertedCount = 0;
 
-    private final AtomicInteger nonEmptyElementsCount = new AtomicInteger(0);
+    private int nonEmptyElementsCount = 0;
+
+    public interface Visitor<T> {
+        public void visit(T element);
+    }
 
     public Sink(int sinkSize) {
         this.sinkSize = sinkSize;
-        this.sink = new LinkedBlockingQueue<>(sinkSize);
+        this.slots = new AtomicReferenceArray<>(sinkSize);
     }
 
     public boolean add(T element) {
-        Option<T> option = Option.create(element);
-        boolean needInsertElement = !queueFullOfEmptyElements() || option.isDefined();
+        boolean needInsertElement = !queueFullOfEmptyElements() || element != null;
         if (needInsertElement) {
-            return insertAndSlide(option);
+            insertAndSlide(element);
         }
-        return false;
+        return needInsertElement;
     }
 
-    public List<T> getAll() {
-        Option<T>[] options = sink.toArray(new Option[0]);
-        ArrayList<T> list = new ArrayList<>(options.length);
-        for (Option<T> option: options) {
-            if (option.isDefined()) {
-                list.add(option.get());
-            }
+    /**
+     * Adds an element like {@link #add(Object)} does
+     *
+     * @return a non-empty element which has been slid out of the sink or null
+     */
+    public T slide(T element) {
+        if (!queueFullOfEmptyElements() || element != null) {
+            return insertAndSlide(element);
         }
-        return list;
+        return null;
     }
 
-    private boolean queueFullOfEmptyElements() {
-        return sink.size() == sinkSize && nonEmptyElementsCount.get() == 0;
+    /**
+     * Walks all non-empty elements from the oldest one to the newest one
+     */
+    public void forEach(Visitor<? super T> visitor) {
+        forEachSince(0, visitor);
     }
 
-    private boolean insertAndSlide(Option<T> option) {
-        if (sink.size() == sinkSize) {
-            Option<T> polled = sink.poll();
-            if (polled.isDefined()) {
-                nonEmptyElementsCount.decrementAndGet();
+    /**
+     * Walks non-empty elements which have been inserted after the given number of insertions
+     * and are still in the sink, from the oldest one to the newest one
+     *
+     * @param insertedCount a value returned by {@link #getInsertedCount()} before
+     */
+    public void forEachSince(long insertedCount, Visitor<? super T> visitor) {
+        long end = this.insertedCount;
+        for (long i = Math.max(insertedCount, end - sinkSize); i < end; i++) {
+            T element = slots.get((int) (i % sinkSize));
+            if (element != null) {
+                visitor.visit(element);
             }
         }
-        if (option.isDefined()) {
-            nonEmptyElementsCount.incrementAndGet();
-        }
-        return sink.add(option);
     }
-}
 
-abstract class Option<T> {
-
-    abstract boolean isDefined();
+    /**
+     * @return a number of elements (including empty ones) which have been ever inserted
+     */
+    public long getInsertedCount() {
+        return insertedCount;
+    }
 
-    abstract T get();
+    public List<T> getAll() {
+        final ArrayList<T> list = new ArrayList<>(sinkSize);
+        forEach(new Visitor<T>() {
+            @Override
+            public void visit(T element) {
+                list.add(element);
+            }
+        });
+        return list;
+    }
 
-    private final static Option None = new Option() {
-        @Override
-        boolean isDefined() {
-            return false;
-        }
+    private boolean queueFullOfEmptyElements() {
+        return insertedCount >= sinkSize && nonEmptyElementsCount == 0;
+    }
 
-        @Override
-        Object get() {
-            return null;
+    private T insertAndSlide(T element) {
+        long inserted = insertedCount;
+        int index = (int) (inserted % sinkSize);
+        T polled = slots.getAndSet(index, element);
+        if (polled != null) {
+            nonEmptyElementsCount--;
         }
-    };
-
-    static <T> Option<T> create(final T value) {
-        if (value == null) {
-            return None;
-        } else {
-            return new Option<T>() {
-                @Override
-                boolean isDefined() {
-                    return true;
-                }
-
-                @Override
-                T get() {
-                    return value;
-                }
-            };
+        if (element != null) {
+            nonEmptyElementsCount++;
         }
+        insertedCount = inserted + 1;
+        return polled;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,224 @@
+package eu.inn.metrics.common;
+
+import com.codahale.metrics.Snapshot;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A counting reservoir which slides a window of flush periods and hibernates through {@link RecorderHandoff}.
+ * It keeps counts, rates and a shared snapshot of the window, subclasses provide the window itself.
+ *
+ * All window callbacks are called under the windowLock.
+ *
+ * @param <R> a type of a recorder of a flush period
+ * @param <S> a type of a snapshot of the window
+ */
+public abstract class TimeWindowCountingReservoir<R, S extends Snapshot> implements CountingReservoir {
+
+    private final S emptySnapshot;
+
+    protected final int sinkSize;
+
+    protected final long flushPeriod;
+
+    protected final TimeUnit flushUnit;
+
+    protected final FlushScheduler flushScheduler;
+
+    protected final Object windowLock = new Object();
+
+    private FlushScheduler.Registration registration;
+
+    private volatile long windowCount = 0;
+
+    /**
+     * a number of values in the window which are counted by rates
+     */
+    private volatile long windowRecordedCount = 0;
+
+    /**
+     * a number of values of windows which have been dropped on hibernation, it's guarded by the windowLock
+     */
+    private long droppedCount = 0;
+
+    private volatile long totalCount = 0;
+
+    /**
+     * a number of flushes since the reservoir has been created, it's updated only by the flusher
+     */
+    private volatile long flushes = 0;
+
+    /**
+     * a snapshot of the current window, it's shared between all readers until the next flush
+     */
+    private volatile S snapshot;
+
+    /**
+     * the scheduler keeps only a weak reference to the flusher,
+     * so the reservoir is deregistered as soon as it becomes unreachable
+     */
+    private final FlushListener flusher = new FlushListener() {
+        @Override
+        public void flush() {
+            recorders.flush();
+        }
+    };
+
+    private final RecorderHandoff<R> recorders;
+
+    protected TimeWindowCountingReservoir(S emptySnapshot, FlushScheduler flushScheduler,
+                                          long flushPeriod, TimeUnit flushUnit, int sinkSize, boolean hibernation) {
+        this.emptySnapshot = emptySnapshot;
+        this.snapshot = emptySnapshot;
+        this.flushScheduler = flushScheduler;
+        this.flushPeriod = flushPeriod;
+        this.flushUnit = flushUnit;
+        this.sinkSize = sinkSize;
+        this.recorders = new RecorderHandoff<R>(windowLock, hibernation) {
+            @Override
+            protected R wakeUp() {
+                return TimeWindowCountingReservoir.this.wakeUp();
+            }
+
+            @Override
+            protected boolean drain(R recorder) {
+                return slideWindow(recorder);
+            }
+
+            @Override
+            protected void hibernate(R recorder) {
+                TimeWindowCountingReservoir.this.hibernate(recorder);
+            }
+
+            @Override
+            protected void record(R recorder, long value) {
+                TimeWindowCountingReservoir.this.record(recorder, value);
+            }
+        };
+    }
+
+    /**
+     * Builds the window, it should be called at the end of a constructor of a subclass
+     */
+    protected final void start() {
+        recorders.start();
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(windowCount, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void update(long value) {
+        recorders.update(value);
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        S current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (windowLock) {
+            if (snapshot == null) {
+                snapshot = snapshotWindow();
+            }
+            return snapshot;
+        }
+    }
+
+    @Override
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    @Override
+    public double getWindowRate() {
+        long periods = Math.min(flushes, sinkSize);
+        if (periods == 0) {
+            return 0;
+        }
+        return windowRecordedCount / (periods * flushUnit.toNanos(flushPeriod) / 1e9);
+    }
+
+    /**
+     * @return true if the reservoir has dropped its buffers and isn't flushed until the next update
+     */
+    public boolean isHibernating() {
+        return recorders.isHibernating();
+    }
+
+    /**
+     * @return a recorder of a new window
+     */
+    protected abstract R newWindow();
+
+    /**
+     * Moves values of the recorder into the window and slides out its oldest period
+     *
+     * @return false if the window hasn't been changed
+     */
+    protected abstract boolean flushWindow(R recorder);
+
+    /**
+     * Drops the window and releases the recorder
+     */
+    protected abstract void dropWindow(R recorder);
+
+    protected abstract void record(R recorder, long value);
+
+    protected abstract S snapshotWindow();
+
+    /**
+     * @return a number of values in the window
+     */
+    protected abstract long countWindow();
+
+    /**
+     * @return a number of values in the window which are counted by rates
+     */
+    protected long countRecorded() {
+        return countWindow();
+    }
+
+    /**
+     * @return a number of values which have been counted by rates since the window has been created
+     */
+    protected abstract long countFlushed();
+
+    /**
+     * it's called under the windowLock
+     */
+    private R wakeUp() {
+        R recorder = newWindow();
+        registration = flushScheduler.register(flusher, flushPeriod, flushUnit);
+        return recorder;
+    }
+
+    /**
+     * it's called under the windowLock
+     *
+     * @return true if the window is empty
+     */
+    private boolean slideWindow(R recorder) {
+        if (flushWindow(recorder)) {
+            windowCount = countWindow();
+            windowRecordedCount = countRecorded();
+            totalCount = droppedCount + countFlushed();
+            snapshot = windowCount == 0 ? emptySnapshot : null;
+        }
+        flushes = flushes + 1;
+        return windowCount == 0;
+    }
+
+    /**
+     * it's called under the windowLock
+     */
+    private void hibernate(R recorder) {
+        droppedCount += countFlushed();
+        dropWindow(recorder);
+        registration.cancel();
+        registration = null;
+    }
+}
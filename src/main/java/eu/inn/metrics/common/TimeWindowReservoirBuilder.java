@@ -1,5 +1,6 @@
 package eu.inn.metrics.common;
 
+import com.codahale.metrics.Clock;
 import com.codahale.metrics.Reservoir;
 
 import java.util.concurrent.TimeUnit;
@@ -12,6 +13,15 @@ public abstract class TimeWindowReservoirBuilder<T extends Reservoir> {
     protected long window = 15;
     protected TimeUnit windowUnit = TimeUnit.SECONDS;
 
+    protected boolean hibernation = false;
+
+    protected FlushScheduler flushScheduler = FlushScheduler.getDefault();
+
+    /**
+     * the clock of the flush scheduler is used if it's null
+     */
+    protected Clock clock;
+
     public TimeWindowReservoirBuilder<T> flushEvery(long flushPeriod, TimeUnit flushUnit) {
         validatePeriods("flushPeriod", flushPeriod, flushUnit);
         this.flushPeriod = flushPeriod;
@@ -26,8 +36,60 @@ public abstract class TimeWindowReservoirBuilder<T extends Reservoir> {
         return this;
     }
 
+    /**
+     * A hibernating reservoir drops its buffers and stops flushing as soon as its whole window is empty,
+     * they are rebuilt on the next update. It bounds memory of a registry by active metrics only.
+     */
+    public TimeWindowReservoirBuilder<T> hibernateWhenIdle(boolean hibernation) {
+        this.hibernation = hibernation;
+        return this;
+    }
+
+    /**
+     * e.g. a {@link ManualFlushScheduler} makes flushes deterministic, its virtual clock is used unless a clock is given
+     */
+    public TimeWindowReservoirBuilder<T> flushScheduler(FlushScheduler flushScheduler) {
+        if (flushScheduler == null) {
+            throw new IllegalArgumentException("flushScheduler should be non-null");
+        }
+        validateClock(flushScheduler, clock);
+        this.flushScheduler = flushScheduler;
+        return this;
+    }
+
+    /**
+     * A clock of time-dependent sampling and rates, it's the clock of the flush scheduler by default.
+     * A {@link ManualFlushScheduler} goes along only with its own clock.
+     */
+    public TimeWindowReservoirBuilder<T> clock(Clock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("clock should be non-null");
+        }
+        validateClock(flushScheduler, clock);
+        this.clock = clock;
+        return this;
+    }
+
+    public Clock getClock() {
+        return clock != null ? clock : flushScheduler.getClock();
+    }
+
     abstract public T build();
 
+    /**
+     * @return a counter with the same flush period and window as reservoirs of the builder
+     */
+    public WindowCounter buildCounter() {
+        int sinkSize = (int) Math.ceil((double) windowUnit.toNanos(window) / flushUnit.toNanos(flushPeriod));
+        return new WindowCounter(flushScheduler, flushPeriod, flushUnit, sinkSize);
+    }
+
+    private static void validateClock(FlushScheduler flushScheduler, Clock clock) {
+        if (clock != null && flushScheduler instanceof ManualFlushScheduler && clock != flushScheduler.getClock()) {
+            throw new IllegalArgumentException("a ManualFlushScheduler should go along with its own clock");
+        }
+    }
+
     private static void validatePeriods(String name, long period, TimeUnit unit) {
         if (period <= 0) {
             throw new IllegalArgumentException(name + " duration should be positive integer");
@@ -0,0 +1,120 @@
+package eu.inn.metrics.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events over a sliding time window.
+ *
+ * Events are added to padded stripes chosen by a thread hash, the stripes are never reset,
+ * so their sum is a total count which never goes backwards. On flush the growth of the sum since the previous flush
+ * is moved into a ring of per-period sums with a running sum of the whole window.
+ */
+public class WindowCounter {
+
+    /**
+     * a stripe takes a whole cache line
+     */
+    private final static int STRIDE = 8;
+
+    private final static int MAX_STRIPES = 16;
+
+    private final AtomicLongArray stripes;
+
+    private final int mask;
+
+    /**
+     * sums of flush periods, they are accessed only by the flusher
+     */
+    private final long[] ring;
+
+    private final long flushPeriodNanos;
+
+    private volatile long windowCount = 0;
+
+    /**
+     * a sum of the stripes at the previous flush, it's accessed only by the flusher
+     */
+    private long flushedCount = 0;
+
+    private volatile long flushes = 0;
+
+    /**
+     * the scheduler keeps only a weak reference to the flusher,
+     * so the counter is deregistered as soon as it becomes unreachable
+     */
+    private final FlushListener flusher = new FlushListener() {
+        @Override
+        public void flush() {
+            slide();
+        }
+    };
+
+    public WindowCounter(long flushPeriod, TimeUnit flushUnit, int sinkSize) {
+        this(FlushScheduler.getDefault(), flushPeriod, flushUnit, sinkSize);
+    }
+
+    public WindowCounter(FlushScheduler flushScheduler, long flushPeriod, TimeUnit flushUnit, int sinkSize) {
+        int count = Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES));
+        this.stripes = new AtomicLongArray(count * STRIDE);
+        this.mask = count - 1;
+        this.ring = new long[sinkSize];
+        this.flushPeriodNanos = flushUnit.toNanos(flushPeriod);
+        flushScheduler.register(flusher, flushPeriod, flushUnit);
+    }
+
+    public void add(long n) {
+        stripes.addAndGet(stripe() * STRIDE, n);
+    }
+
+    /**
+     * @return a sum of flushed periods of the window
+     */
+    public long getWindowCount() {
+        return windowCount;
+    }
+
+    /**
+     * @return a sum of all events since the counter has been created including ones which haven't been flushed yet
+     */
+    public long getTotalCount() {
+        long count = 0;
+        for (int i = 0; i < stripes.length(); i += STRIDE) {
+            count += stripes.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return a number of events per second over the window, or over flushed periods if the counter is younger than the window
+     */
+    public double getWindowRate() {
+        long periods = Math.min(flushes, ring.length);
+        if (periods == 0) {
+            return 0;
+        }
+        return windowCount / (periods * flushPeriodNanos / 1e9);
+    }
+
+    private void slide() {
+        long sum = 0;
+        for (int i = 0; i < stripes.length(); i += STRIDE) {
+            sum += stripes.get(i);
+        }
+        long count = sum - flushedCount;
+        flushedCount = sum;
+        int index = (int) (flushes % ring.length);
+        long evicted = ring[index];
+        ring[index] = count;
+        if (count != 0 || evicted != 0) {
+            windowCount = windowCount + count - evicted;
+        }
+        flushes = flushes + 1;
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
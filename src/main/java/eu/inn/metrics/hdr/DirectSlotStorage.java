@@ -0,0 +1,182 @@
+package eu.inn.metrics.hdr;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Keeps slots off-heap in a direct buffer of the window, so the garbage collector doesn't scan or copy their counts.
+ *
+ * A slot is a sequence of recorded values (as deltas from the previous one) with their counts, both are varints.
+ * Slots are slid out of the window in the order they have been stored, so the buffer is used as a ring:
+ * a new slot is written after the newest one and the space is reclaimed from the oldest one.
+ * The buffer grows if a slot doesn't fit, it's freed by the garbage collector together with the window.
+ * Evicted slots are decoded into a single reused histogram.
+ */
+final class DirectSlotStorage extends SlotStorage<DirectSlotStorage.Region> {
+
+    private final static int INITIAL_CAPACITY = 1024;
+
+    /**
+     * the longest encoding of a value and its count
+     */
+    private final static int MAX_ENTRY_LENGTH = 20;
+
+    static final class Region {
+        private int offset;
+        private final int length;
+
+        Region(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private ByteBuffer arena = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+
+    /**
+     * regions of all slots in the window from the oldest one to the newest one
+     */
+    private final ArrayDeque<Region> regions = new ArrayDeque<>();
+
+    /**
+     * an on-heap buffer for encoding, it's copied into the arena when the length of a slot is known
+     */
+    private byte[] encoded = new byte[256];
+
+    private Histogram scratch;
+
+    @Override
+    Region store(Histogram interval) {
+        int length = encode(interval);
+        Region region = new Region(allocate(length), length);
+        arena.position(region.offset);
+        arena.put(encoded, 0, length);
+        regions.addLast(region);
+        return region;
+    }
+
+    @Override
+    void subtract(Histogram window, Region slot) {
+        window.subtract(decode(window, slot));
+    }
+
+    @Override
+    void add(Histogram target, Region slot) {
+        target.add(decode(target, slot));
+    }
+
+    @Override
+    boolean keepsInterval() {
+        return false;
+    }
+
+    @Override
+    Histogram release(Region slot) {
+        regions.pollFirst();
+        return null;
+    }
+
+    private int encode(Histogram interval) {
+        int position = 0;
+        long previous = 0;
+        for (HistogramIterationValue value : interval.recordedValues()) {
+            if (encoded.length < position + MAX_ENTRY_LENGTH) {
+                byte[] grown = new byte[encoded.length * 2];
+                System.arraycopy(encoded, 0, grown, 0, position);
+                encoded = grown;
+            }
+            position = writeVarLong(value.getValueIteratedTo() - previous, position);
+            position = writeVarLong(value.getCountAtValueIteratedTo(), position);
+            previous = value.getValueIteratedTo();
+        }
+        return position;
+    }
+
+    private int writeVarLong(long value, int position) {
+        while ((value & ~0x7FL) != 0) {
+            encoded[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        encoded[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * @return the reused histogram with values of the slot, it's valid until the next call
+     */
+    private Histogram decode(Histogram like, Region region) {
+        if (scratch == null) {
+            scratch = new Histogram(like.getLowestDiscernibleValue(), like.getHighestTrackableValue(),
+                    like.getNumberOfSignificantValueDigits());
+        } else {
+            scratch.reset();
+        }
+        arena.position(region.offset);
+        int end = region.offset + region.length;
+        long value = 0;
+        while (arena.position() < end) {
+            value += readVarLong();
+            scratch.recordValueWithCount(value, readVarLong());
+        }
+        return scratch;
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = arena.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * @return an offset of a free space of the length after the newest region
+     */
+    private int allocate(int length) {
+        if (regions.isEmpty()) {
+            if (arena.capacity() < length) {
+                arena = ByteBuffer.allocateDirect(Math.max(arena.capacity() * 2, length));
+            }
+            return 0;
+        }
+        Region oldest = regions.peekFirst();
+        Region newest = regions.peekLast();
+        int end = newest.offset + newest.length;
+        if (newest.offset >= oldest.offset) {
+            if (arena.capacity() - end >= length) {
+                return end;
+            } else if (oldest.offset >= length) {
+                return 0;
+            }
+        } else if (oldest.offset - end >= length) {
+            return end;
+        }
+        return grow(length);
+    }
+
+    /**
+     * Moves all regions into a larger buffer one after another
+     *
+     * @return an offset after the newest region
+     */
+    private int grow(int length) {
+        ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(arena.capacity() * 2, arena.capacity() + length));
+        for (Region region : regions) {
+            ByteBuffer source = arena.duplicate();
+            source.limit(region.offset + region.length);
+            source.position(region.offset);
+            region.offset = grown.position();
+            grown.put(source);
+        }
+        int end = grown.position();
+        arena = grown;
+        return end;
+    }
+}
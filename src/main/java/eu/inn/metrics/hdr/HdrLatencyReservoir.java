@@ -1,105 +1,217 @@
 package eu.inn.metrics.hdr;
 
-import com.codahale.metrics.Reservoir;
-import com.codahale.metrics.Snapshot;
-import eu.inn.metrics.common.NamedThreadFactory;
-import eu.inn.metrics.common.Sink;
+import eu.inn.metrics.common.FlushScheduler;
+import eu.inn.metrics.common.TimeWindowCountingReservoir;
 import eu.inn.metrics.common.TimeWindowReservoirBuilder;
 import org.HdrHistogram.Histogram;
 import org.LatencyUtils.LatencyStats;
+import org.LatencyUtils.PauseDetector;
 
-import java.util.List;
-import java.util.concurrent.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @todo
- *  1. provide a method for returning only new histograms for a concrete reporter
- *  2. make an immutable histogram class and use its empty instance instead of the domestic option
+ *  1. make an immutable histogram class and use its empty instance instead of the domestic option
  */
-public class HdrLatencyReservoir implements Reservoir {
-
-    private final static ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory());
+public class HdrLatencyReservoir extends TimeWindowCountingReservoir<IntervalRecorder, HistogramSnapshot> {
 
     private final static HistogramSnapshot emptyHistogramSnapshot = new HistogramSnapshot(new Histogram(0));
 
-    private final LatencyStats stats;
+    private final IntervalRecorder.Factory recorderFactory;
+
+    private final WindowStorage storage;
+
+    /**
+     * longer values are rejected or recorded as this one, it's Long.MAX_VALUE if LatencyStats checks values itself
+     */
+    private final long highestTrackableLatency;
 
-    private final long flushPeriod;
+    private final boolean capLongerLatencies;
+
+    private final AtomicLong cappedCount = new AtomicLong();
+
+    /**
+     * it's guarded by the windowLock, it's null while the reservoir hibernates
+     */
+    private IntervalWindow<?> window;
 
-    private final TimeUnit flushUnit;
+    /**
+     * a number of flushes of windows which have been dropped on hibernation, it's guarded by the windowLock
+     */
+    private long droppedSequence = 0;
 
-    private final Sink<Histogram> sink;
+    /**
+     * times of the latest wake-up and the latest flush by the clock of the scheduler, they are guarded by the windowLock
+     */
+    private long windowStartMillis;
 
-    private volatile boolean valueAddedSinceSnapshotTaken = false;
+    private long lastFlushMillis;
 
-    public HdrLatencyReservoir(LatencyStats stats, long flushPeriod, TimeUnit flushUnit, int sinkSize) {
-        this.stats = stats;
-        this.flushPeriod = flushPeriod;
-        this.flushUnit = flushUnit;
-        this.sink = new Sink<>(sinkSize);
-        scheduleHistogramFlush();
+    public HdrLatencyReservoir(final LatencyStats stats, long flushPeriod, TimeUnit flushUnit, int sinkSize) {
+        this(new IntervalRecorder.Factory() {
+            @Override
+            public IntervalRecorder newRecorder() {
+                return new LatencyStatsRecorder(stats, false);
+            }
+        }, WindowStorage.DENSE, FlushScheduler.getDefault(), flushPeriod, flushUnit, sinkSize, false, Long.MAX_VALUE, false);
     }
 
-    @Override
-    public int size() {
-        int size = 0;
-        for (Histogram h: sink.getAll()) {
-            size += h.getTotalCount();
-        }
-        return size;
+    HdrLatencyReservoir(IntervalRecorder.Factory recorderFactory, WindowStorage storage, FlushScheduler flushScheduler,
+                        long flushPeriod, TimeUnit flushUnit, int sinkSize, boolean hibernation,
+                        long highestTrackableLatency, boolean capLongerLatencies) {
+        super(emptyHistogramSnapshot, flushScheduler, flushPeriod, flushUnit, sinkSize, hibernation);
+        this.recorderFactory = recorderFactory;
+        this.storage = storage;
+        this.highestTrackableLatency = highestTrackableLatency;
+        this.capLongerLatencies = capLongerLatencies;
+        start();
     }
 
     @Override
     public void update(long value) {
-        valueAddedSinceSnapshotTaken = true;
-        stats.recordLatency(value);
+        if (value < 0) {
+            throw new IllegalArgumentException("latency " + value + " is negative");
+        }
+        if (value > highestTrackableLatency) {
+            if (!capLongerLatencies) {
+                throw new IllegalArgumentException("latency " + value + " is longer than the highest trackable one "
+                        + highestTrackableLatency);
+            }
+            cappedCount.incrementAndGet();
+            value = highestTrackableLatency;
+        }
+        super.update(value);
     }
 
-    @Override
-    public Snapshot getSnapshot() {
-        long highestTrackableValue = 0;
-        long lowestDiscernibleValue = Long.MAX_VALUE;
-        int numberOfSignificantValueDigits = 0;
+    /**
+     * @return a number of values which have been recorded as the highest trackable latency since the reservoir has been created
+     */
+    public long getCappedCount() {
+        return cappedCount.get();
+    }
 
-        List<Histogram> histogramList = sink.getAll();
+    /**
+     * @return the current window in the compressed HdrHistogram format
+     */
+    public byte[] exportWindow() {
+        return ((HistogramSnapshot) getSnapshot()).toCompressedBytes();
+    }
 
-        for (Histogram h: histogramList) {
-            if (h.getHighestTrackableValue() > highestTrackableValue) {
-                highestTrackableValue = h.getHighestTrackableValue();
-            }
-            if (h.getLowestDiscernibleValue() < lowestDiscernibleValue) {
-                lowestDiscernibleValue = h.getLowestDiscernibleValue();
-            }
-            if (h.getNumberOfSignificantValueDigits() > numberOfSignificantValueDigits) {
-                numberOfSignificantValueDigits = h.getNumberOfSignificantValueDigits();
-            }
+    /**
+     * A cursor returns only values flushed since its previous call, so every reporter should have its own cursor
+     *
+     * @return a cursor which starts from the oldest interval in the window
+     */
+    public Cursor newCursor() {
+        synchronized (windowLock) {
+            long windowMillis = sinkSize * flushUnit.toMillis(flushPeriod);
+            return new Cursor(droppedSequence, Math.max(windowStartMillis, lastFlushMillis - windowMillis));
         }
-        if (highestTrackableValue == 0) {
-            return emptyHistogramSnapshot;
-        } else {
-            Histogram mergedHistogram = new Histogram(lowestDiscernibleValue, highestTrackableValue, numberOfSignificantValueDigits);
-            for (Histogram h: histogramList) {
-                mergedHistogram.add(h);
-            }
-            return new HistogramSnapshot(mergedHistogram);
+    }
+
+    /**
+     * @return a cursor which skips values which have been already flushed into the window
+     */
+    public Cursor newLatestCursor() {
+        synchronized (windowLock) {
+            return new Cursor(droppedSequence + (window == null ? 0 : window.getSequence()), lastFlushMillis);
         }
     }
 
-    private void scheduleHistogramFlush() {
-        executor.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                Histogram histogram = null;
-                if (valueAddedSinceSnapshotTaken) {
-                    valueAddedSinceSnapshotTaken = false; // a possible race condition here
-                    histogram = stats.getIntervalHistogram();
-                    if (histogram.getTotalCount() == 0) {
-                        histogram = null;
-                    }
+    public final class Cursor {
+
+        /**
+         * a number of flushes seen by the cursor, it's guarded by the windowLock
+         */
+        private long sequence;
+
+        /**
+         * a time of the flush seen by the previous call, it's guarded by the windowLock
+         */
+        private long startMillis;
+
+        private Cursor(long sequence, long startMillis) {
+            this.sequence = sequence;
+            this.startMillis = startMillis;
+        }
+
+        /**
+         * Intervals which have been slid out of the window before the call are skipped
+         *
+         * @return a snapshot of values flushed since the previous call,
+         *         its start and end time stamps are times of flushes by the clock of the flush scheduler
+         */
+        public HistogramSnapshot next() {
+            synchronized (windowLock) {
+                if (window == null) {
+                    sequence = droppedSequence;
+                    startMillis = lastFlushMillis;
+                    return emptyHistogramSnapshot;
                 }
-                sink.add(histogram);
+                Histogram delta = window.copySince(Math.max(0, sequence - droppedSequence));
+                sequence = droppedSequence + window.getSequence();
+                // values of a window rebuilt after hibernation are younger than its wake-up
+                long start = Math.max(startMillis, windowStartMillis);
+                startMillis = lastFlushMillis;
+                if (delta == null) {
+                    return emptyHistogramSnapshot;
+                }
+                delta.setStartTimeStamp(start);
+                delta.setEndTimeStamp(lastFlushMillis);
+                return new HistogramSnapshot(delta);
             }
-        }, flushPeriod, flushPeriod, flushUnit);
+        }
+    }
+
+    @Override
+    protected IntervalRecorder newWindow() {
+        window = IntervalWindow.create(storage, sinkSize);
+        windowStartMillis = flushScheduler.getClock().getTime();
+        lastFlushMillis = windowStartMillis;
+        return recorderFactory.newRecorder();
+    }
+
+    @Override
+    protected boolean flushWindow(IntervalRecorder recorder) {
+        lastFlushMillis = flushScheduler.getClock().getTime();
+        return window.flush(recorder);
+    }
+
+    @Override
+    protected void dropWindow(IntervalRecorder recorder) {
+        recorder.release();
+        droppedSequence += window.getSequence();
+        window = null;
+    }
+
+    @Override
+    protected void record(IntervalRecorder recorder, long value) {
+        recorder.recordValue(value);
+    }
+
+    @Override
+    protected HistogramSnapshot snapshotWindow() {
+        return new HistogramSnapshot(window.copy());
+    }
+
+    @Override
+    protected long countWindow() {
+        return window.getTotalCount();
+    }
+
+    /**
+     * values which have been added by corrections of LATENCY_STATS or EXPECTED_INTERVAL modes
+     * aren't counted by rates and the total count
+     */
+    @Override
+    protected long countRecorded() {
+        return window.getRecordedCount();
+    }
+
+    @Override
+    protected long countFlushed() {
+        return window.getFlushedCount();
     }
 
     public static HdrLatencyReservoir.Builder builder() {
@@ -107,21 +219,236 @@ public class HdrLatencyReservoir implements Reservoir {
     }
 
     /**
-     * @todo synchronize LatencyStats settings with a window and a flush settings
+     * Histograms of recorders track latencies up to an hour by default, recording a longer latency throws IllegalArgumentException
+     * unless {@link #capLongerLatencies()} is set.
+     * Only the time cap of the interval estimator is derived from the window, ranges and precision depend on timed operations.
      */
     public static class Builder extends TimeWindowReservoirBuilder<HdrLatencyReservoir> {
 
-        private LatencyStats stats = new LatencyStats();
+        private LatencyStats stats;
+
+        /**
+         * it's RAW if stripes are set and LATENCY_STATS otherwise if it's null
+         */
+        private RecordingMode recordingMode;
+
+        private int stripes = 0;
+
+        private long expectedInterval = 0;
+
+        private long lowestTrackableLatency = 1000L;
+
+        private long highestTrackableLatency = 3600 * 1000L * 1000L * 1000L;
+
+        private boolean capLongerLatencies = false;
+
+        private int numberOfSignificantValueDigits = 2;
 
+        private int intervalEstimatorWindowLength = 1024;
+
+        /**
+         * it's derived from the window if it's 0
+         */
+        private long intervalEstimatorTimeCap = 0;
+
+        /**
+         * the default LatencyStats pause detector is used if it's null
+         */
+        private PauseDetector pauseDetector;
+
+        private WindowStorage storage = WindowStorage.DENSE;
+
+        /**
+         * By default every reservoir has its own LatencyStats.
+         * A shared stats isn't stopped on hibernation, so it's better to not share it with hibernating reservoirs.
+         */
         public Builder stats(LatencyStats stats) {
             this.stats = stats;
             return this;
         }
 
+        /**
+         * LATENCY_STATS is the most precise mode, but it costs extra work on every value and on every pause,
+         * RAW or EXPECTED_INTERVAL modes are cheaper for throughput-critical services
+         */
+        public Builder recordingMode(RecordingMode recordingMode) {
+            if (recordingMode == null) {
+                throw new IllegalArgumentException("recordingMode should be non-null");
+            }
+            this.recordingMode = recordingMode;
+            return this;
+        }
+
+        /**
+         * @param expectedInterval an expected interval between values for the EXPECTED_INTERVAL mode
+         */
+        public Builder expectedInterval(long expectedInterval, TimeUnit unit) {
+            if (expectedInterval <= 0) {
+                throw new IllegalArgumentException("expectedInterval duration should be positive integer");
+            }
+            this.expectedInterval = unit.toNanos(expectedInterval);
+            return this;
+        }
+
+        /**
+         * Records values of RAW and EXPECTED_INTERVAL modes into several HdrHistogram recorders chosen by a thread hash.
+         * It removes contention between writers.
+         *
+         * @param stripes a number of recorders, it's rounded up to a power of two
+         */
+        public Builder stripes(int stripes) {
+            if (stripes <= 0) {
+                throw new IllegalArgumentException("stripes should be positive integer");
+            }
+            this.stripes = stripes;
+            return this;
+        }
+
+        /**
+         * Settings of recorders, they are ignored if LatencyStats is given with {@link #stats(LatencyStats)}
+         */
+        public Builder lowestTrackableLatency(long lowestTrackableLatency) {
+            if (lowestTrackableLatency < 1) {
+                throw new IllegalArgumentException("lowestTrackableLatency should be positive integer");
+            }
+            this.lowestTrackableLatency = lowestTrackableLatency;
+            return this;
+        }
+
+        public Builder highestTrackableLatency(long highestTrackableLatency) {
+            if (highestTrackableLatency < 2) {
+                throw new IllegalArgumentException("highestTrackableLatency should be greater than 1");
+            }
+            this.highestTrackableLatency = highestTrackableLatency;
+            return this;
+        }
+
+        /**
+         * Latencies longer than the highest trackable one are recorded as it instead of failing,
+         * they are counted by {@link HdrLatencyReservoir#getCappedCount()}.
+         * The highest trackable latency of the builder is used even if LatencyStats is given with {@link #stats(LatencyStats)}.
+         */
+        public Builder capLongerLatencies() {
+            this.capLongerLatencies = true;
+            return this;
+        }
+
+        public Builder numberOfSignificantValueDigits(int numberOfSignificantValueDigits) {
+            if (numberOfSignificantValueDigits < 0 || numberOfSignificantValueDigits > 5) {
+                throw new IllegalArgumentException("numberOfSignificantValueDigits should be between 0 and 5");
+            }
+            this.numberOfSignificantValueDigits = numberOfSignificantValueDigits;
+            return this;
+        }
+
+        /**
+         * @param intervalEstimatorWindowLength a number of latest values which are used to estimate an interval between values
+         */
+        public Builder intervalEstimatorWindowLength(int intervalEstimatorWindowLength) {
+            if (intervalEstimatorWindowLength <= 0) {
+                throw new IllegalArgumentException("intervalEstimatorWindowLength should be positive integer");
+            }
+            this.intervalEstimatorWindowLength = intervalEstimatorWindowLength;
+            return this;
+        }
+
+        /**
+         * @param intervalEstimatorTimeCap the longest period in nanoseconds which values are used to estimate an interval,
+         *                                 it's the window length by default
+         */
+        public Builder intervalEstimatorTimeCap(long intervalEstimatorTimeCap) {
+            if (intervalEstimatorTimeCap <= 0) {
+                throw new IllegalArgumentException("intervalEstimatorTimeCap should be positive integer");
+            }
+            this.intervalEstimatorTimeCap = intervalEstimatorTimeCap;
+            return this;
+        }
+
+        /**
+         * A pause detector runs its own threads, so it's better to share one detector between all reservoirs of a registry
+         */
+        public Builder pauseDetector(PauseDetector pauseDetector) {
+            this.pauseDetector = pauseDetector;
+            return this;
+        }
+
+        /**
+         * Values are recorded into LatencyStats without corrections for pauses
+         */
+        public Builder disablePauseCorrection() {
+            this.pauseDetector = NoPauseDetectorHolder.instance;
+            return this;
+        }
+
+        /**
+         * PACKED or COMPRESSED storages cut memory of timers which see only a few values per a flush period
+         */
+        public Builder storage(WindowStorage storage) {
+            if (storage == null) {
+                throw new IllegalArgumentException("storage should be non-null");
+            }
+            this.storage = storage;
+            return this;
+        }
+
         public HdrLatencyReservoir build() {
             int sinkSize = (int) Math.ceil((double) windowUnit.toNanos(window) / flushUnit.toNanos(flushPeriod));
-            return new HdrLatencyReservoir(stats, flushPeriod, flushUnit, sinkSize);
+            long windowNanos = windowUnit.toNanos(window);
+            final RecordingMode recordingMode = this.recordingMode != null ? this.recordingMode
+                    : stripes > 0 ? RecordingMode.RAW : RecordingMode.LATENCY_STATS;
+            if (recordingMode == RecordingMode.EXPECTED_INTERVAL && expectedInterval == 0) {
+                throw new IllegalArgumentException("expectedInterval should be set for EXPECTED_INTERVAL mode");
+            }
+            if (recordingMode == RecordingMode.LATENCY_STATS && stripes > 0) {
+                throw new IllegalArgumentException("stripes aren't supported by LATENCY_STATS mode");
+            }
+            if (highestTrackableLatency < 2 * lowestTrackableLatency) {
+                throw new IllegalArgumentException("highestTrackableLatency should be at least twice as high as lowestTrackableLatency");
+            }
+            final int stripes = Math.max(1, this.stripes);
+            final long expectedInterval = recordingMode == RecordingMode.EXPECTED_INTERVAL ? this.expectedInterval : 0;
+            final long lowestTrackableLatency = this.lowestTrackableLatency;
+            final long highestTrackableLatency = this.highestTrackableLatency;
+            final int numberOfSignificantValueDigits = this.numberOfSignificantValueDigits;
+            final LatencyStats stats = this.stats;
+            final LatencyStats.Builder statsBuilder = LatencyStats.Builder.create()
+                    .lowestTrackableLatency(lowestTrackableLatency)
+                    .highestTrackableLatency(highestTrackableLatency)
+                    .numberOfSignificantValueDigits(numberOfSignificantValueDigits)
+                    .intervalEstimatorWindowLength(intervalEstimatorWindowLength)
+                    .intervalEstimatorTimeCap(intervalEstimatorTimeCap > 0 ? intervalEstimatorTimeCap : windowNanos);
+            if (pauseDetector != null) {
+                statsBuilder.pauseDetector(pauseDetector);
+            }
+            IntervalRecorder.Factory recorderFactory = new IntervalRecorder.Factory() {
+                @Override
+                public IntervalRecorder newRecorder() {
+                    if (recordingMode != RecordingMode.LATENCY_STATS) {
+                        return new StripedRecorder(stripes, lowestTrackableLatency, highestTrackableLatency,
+                                numberOfSignificantValueDigits, expectedInterval);
+                    } else if (stats != null) {
+                        return new LatencyStatsRecorder(stats, false);
+                    } else {
+                        return new LatencyStatsRecorder(statsBuilder.build(), true);
+                    }
+                }
+            };
+            // a given LatencyStats checks values by its own highest trackable latency
+            return new HdrLatencyReservoir(recorderFactory, storage, flushScheduler, flushPeriod, flushUnit, sinkSize, hibernation,
+                    stats != null && !capLongerLatencies ? Long.MAX_VALUE : highestTrackableLatency, capLongerLatencies);
         }
     }
+
+    /**
+     * A pause detector starts its thread in the constructor, so it's created only if pause correction is disabled
+     */
+    private static final class NoPauseDetectorHolder {
+
+        /**
+         * it never detects pauses, so values aren't corrected
+         */
+        static final PauseDetector instance = new PauseDetector() {
+        };
+    }
 }
 
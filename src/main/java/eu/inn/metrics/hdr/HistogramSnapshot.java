@@ -3,10 +3,15 @@ package eu.inn.metrics.hdr;
 import com.codahale.metrics.Snapshot;
 import org.HdrHistogram.Histogram;
 import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.HistogramLogWriter;
 
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -16,37 +21,90 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  *
  * we really need only this class, so it isn't necessary to use the entire repository
  *
+ * values could be streamed bucket by bucket with {@link #forEachValue(ValueVisitor)},
+ * {@link #getValues()} and {@link #dumpValues(OutputStream)} materialize every sample and are kept only as fallbacks
  */
-final class HistogramSnapshot extends Snapshot {
+public final class HistogramSnapshot extends Snapshot {
+
+    /**
+     * quantiles which are requested by reporters, they are computed together with the mean and the deviation
+     */
+    private static final double[] standardQuantiles = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+
+    /**
+     * nanoseconds are written as milliseconds in max columns of HdrHistogram logs
+     */
+    private static final double MAX_VALUE_UNIT_RATIO = 1000000.0;
+
     private final Histogram histogram;
 
+    /**
+     * it's computed on the first request, a race leads only to a duplicate computation
+     */
+    private volatile Statistics statistics;
+
+    public interface ValueVisitor {
+        /**
+         * @param value the highest value equivalent to recorded ones
+         * @param count a number of recorded values equivalent to the value
+         */
+        public void visit(long value, long count);
+    }
+
     HistogramSnapshot(Histogram histogram) {
         this.histogram = histogram;
     }
 
+    /**
+     * @return a time in milliseconds of the flush before the values, it's set only for snapshots of a reservoir cursor
+     */
+    public long getStartTimeStamp() {
+        return histogram.getStartTimeStamp();
+    }
+
+    /**
+     * @return a time in milliseconds of the last flush of the values, it's set only for snapshots of a reservoir cursor
+     */
+    public long getEndTimeStamp() {
+        return histogram.getEndTimeStamp();
+    }
+
+    /**
+     * Walks recorded values from the lowest one to the highest one without materializing every sample
+     */
+    public void forEachValue(ValueVisitor visitor) {
+        for (HistogramIterationValue value : histogram.recordedValues()) {
+            visitor.visit(value.getValueIteratedTo(), value.getCountAtValueIteratedTo());
+        }
+    }
+
     @Override
     public double getValue(double quantile) {
+        for (int i = 0; i < standardQuantiles.length; i++) {
+            if (standardQuantiles[i] == quantile) {
+                return statistics().quantileValues[i];
+            }
+        }
         return histogram.getValueAtPercentile(quantile * 100.0);
     }
 
     @Override
     public long[] getValues() {
-        long[] vals = new long[(int) histogram.getTotalCount()];
-        int i = 0;
-
-        for (HistogramIterationValue value : histogram.recordedValues()) {
-            long val = value.getValueIteratedTo();
-
-            for (int j = 0; j < value.getCountAddedInThisIterationStep(); j++) {
-                vals[i] = val;
-
-                i++;
+        final long[] vals = new long[(int) histogram.getTotalCount()];
+        final int[] position = {0};
+
+        forEachValue(new ValueVisitor() {
+            @Override
+            public void visit(long value, long count) {
+                int to = (int) Math.min(vals.length, position[0] + count);
+                Arrays.fill(vals, position[0], to, value);
+                position[0] = to;
             }
-        }
+        });
 
-        if (i != vals.length) {
+        if (position[0] != vals.length) {
             throw new IllegalStateException(
-                    "Total count was " + histogram.getTotalCount() + " but iterating values produced " + vals.length);
+                    "Total count was " + histogram.getTotalCount() + " but iterating values produced " + position[0]);
         }
 
         return vals;
@@ -64,7 +122,7 @@ final class HistogramSnapshot extends Snapshot {
 
     @Override
     public double getMean() {
-        return histogram.getMean();
+        return statistics().mean;
     }
 
     @Override
@@ -74,17 +132,122 @@ final class HistogramSnapshot extends Snapshot {
 
     @Override
     public double getStdDev() {
-        return histogram.getStdDeviation();
+        return statistics().stdDev;
     }
 
+    /**
+     * Writes the histogram as a single interval of the HdrHistogram log format,
+     * it could be read back with {@link org.HdrHistogram.HistogramLogReader}
+     */
     @Override
     public void dump(OutputStream output) {
+        try (PrintStream p = new PrintStream(output, false, UTF_8.name())) {
+            HistogramLogWriter writer = new HistogramLogWriter(p);
+            writer.outputLogFormatVersion();
+            writer.outputIntervalHistogram(histogram);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the histogram as a tagged interval of the HdrHistogram log,
+     * the tag shouldn't contain commas and whitespaces, otherwise the writer throws IllegalArgumentException
+     */
+    public void writeInterval(HistogramLogWriter writer, String tag, double startTimeStampSec, double endTimeStampSec) {
+        synchronized (histogram) {
+            String previousTag = histogram.getTag();
+            histogram.setTag(tag);
+            try {
+                writer.outputIntervalHistogram(startTimeStampSec, endTimeStampSec, histogram, MAX_VALUE_UNIT_RATIO);
+            } finally {
+                histogram.setTag(previousTag);
+            }
+        }
+    }
+
+    /**
+     * Encodes the histogram in the compressed HdrHistogram format,
+     * encoded snapshots of several reservoirs could be merged with {@link WindowFrameAggregator}
+     */
+    public byte[] toCompressedBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        return Arrays.copyOf(buffer.array(), length);
+    }
+
+    /**
+     * Writes every recorded value on a separate line like {@link com.codahale.metrics.UniformSnapshot#dump} does
+     */
+    public void dumpValues(OutputStream output) {
         try (PrintWriter p = new PrintWriter(new OutputStreamWriter(output, UTF_8))) {
             for (HistogramIterationValue value : histogram.recordedValues()) {
-                for (int j = 0; j < value.getCountAddedInThisIterationStep(); j++) {
-                    p.printf("%d%n", value.getValueIteratedTo());
+                String line = value.getValueIteratedTo() + System.lineSeparator();
+                for (long j = 0; j < value.getCountAtValueIteratedTo(); j++) {
+                    p.write(line);
                 }
             }
         }
     }
-}
\ No newline at end of file
+
+    private Statistics statistics() {
+        Statistics current = statistics;
+        if (current == null) {
+            current = new Statistics(histogram);
+            statistics = current;
+        }
+        return current;
+    }
+
+    /**
+     * The mean, the standard deviation and the standard quantiles computed in a single pass over recorded values.
+     * They are computed the same way as the histogram computes them one by one.
+     */
+    private static final class Statistics {
+
+        private final double mean;
+
+        private final double stdDev;
+
+        private final long[] quantileValues = new long[standardQuantiles.length];
+
+        Statistics(Histogram histogram) {
+            long totalCount = histogram.getTotalCount();
+            long[] countsAtQuantiles = new long[standardQuantiles.length];
+            for (int i = 0; i < standardQuantiles.length; i++) {
+                double percentile = standardQuantiles[i] * 100.0;
+                double requestedPercentile = Math.min(Math.max(Math.nextAfter(percentile, Double.NEGATIVE_INFINITY), 0.0D), 100.0D);
+                countsAtQuantiles[i] = Math.max((long) Math.ceil((requestedPercentile * totalCount) / 100.0), 1);
+            }
+
+            // deviations are accumulated relative to the first value to keep precision of the sum of squares
+            double shift = Double.NaN;
+            double shiftedTotal = 0;
+            double shiftedSquaresTotal = 0;
+            int nextQuantile = 0;
+            for (HistogramIterationValue value : histogram.recordedValues()) {
+                long valueIteratedTo = value.getValueIteratedTo();
+                long count = value.getCountAtValueIteratedTo();
+                double median = histogram.medianEquivalentValue(valueIteratedTo);
+                if (Double.isNaN(shift)) {
+                    shift = median;
+                }
+                double shifted = median - shift;
+                shiftedTotal += shifted * count;
+                shiftedSquaresTotal += shifted * shifted * count;
+                while (nextQuantile < countsAtQuantiles.length && value.getTotalCountToThisValue() >= countsAtQuantiles[nextQuantile]) {
+                    quantileValues[nextQuantile++] = valueIteratedTo;
+                }
+            }
+
+            if (totalCount == 0) {
+                mean = 0;
+                stdDev = 0;
+            } else {
+                double shiftedMean = shiftedTotal / totalCount;
+                mean = shift + shiftedMean;
+                stdDev = Math.sqrt(Math.max(0, shiftedSquaresTotal / totalCount - shiftedMean * shiftedMean));
+            }
+        }
+    }
+}
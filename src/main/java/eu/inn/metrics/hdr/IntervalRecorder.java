@@ -0,0 +1,31 @@
+package eu.inn.metrics.hdr;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Records values and hands them over to the flusher interval by interval
+ */
+interface IntervalRecorder {
+
+    public void recordValue(long value);
+
+    /**
+     * @param recycle a histogram which has been returned by this recorder before and isn't used anymore, or null
+     * @return a histogram of values recorded since the previous call, it's empty if there were no values
+     */
+    public Histogram getIntervalHistogram(Histogram recycle);
+
+    /**
+     * @return a number of values recorded into the latest interval histogram, values added by corrections aren't counted
+     */
+    public long getIntervalRecordedCount();
+
+    /**
+     * Frees resources of the recorder, it isn't used after that
+     */
+    public void release();
+
+    interface Factory {
+        public IntervalRecorder newRecorder();
+    }
+}
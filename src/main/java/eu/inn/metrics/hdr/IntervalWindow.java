@@ -0,0 +1,147 @@
+package eu.inn.metrics.hdr;
+
+import eu.inn.metrics.common.Sink;
+import org.HdrHistogram.Histogram;
+
+/**
+ * A sliding window of interval histograms with a merged histogram of all of them,
+ * the merged histogram is updated incrementally on every slide.
+ * It isn't thread-safe, the owner should guard it.
+ *
+ * @param <S> a type of a window slot
+ */
+final class IntervalWindow<S> {
+
+    private final Sink<S> sink;
+
+    private final SlotStorage<S> storage;
+
+    /**
+     * a sum of all slots in the sink
+     */
+    private Histogram windowHistogram;
+
+    /**
+     * an empty or evicted histogram which is given back to the recorder on the next flush,
+     * so flushes of a full window don't allocate new histograms
+     */
+    private Histogram spareHistogram;
+
+    /**
+     * numbers of values recorded in flush periods of the window without values added by corrections,
+     * it slides on every flush, while the sink skips empty slots when it's empty
+     */
+    private final long[] recordedCounts;
+
+    private int position = 0;
+
+    private long windowRecordedCount = 0;
+
+    /**
+     * a number of recorded values which have been ever flushed into the window, values added by corrections aren't counted
+     */
+    private long flushedCount = 0;
+
+    IntervalWindow(SlotStorage<S> storage, int sinkSize) {
+        this.storage = storage;
+        this.sink = new Sink<>(sinkSize);
+        this.recordedCounts = new long[sinkSize];
+    }
+
+    static IntervalWindow<?> create(WindowStorage storage, int sinkSize) {
+        return create(SlotStorage.of(storage), sinkSize);
+    }
+
+    private static <S> IntervalWindow<S> create(SlotStorage<S> storage, int sinkSize) {
+        return new IntervalWindow<>(storage, sinkSize);
+    }
+
+    /**
+     * Moves values from the recorder into a new slot and slides out the oldest slot
+     *
+     * @return false if the window hasn't been changed
+     */
+    boolean flush(IntervalRecorder recorder) {
+        Histogram interval = recorder.getIntervalHistogram(spareHistogram);
+        long recordedCount = recorder.getIntervalRecordedCount();
+        spareHistogram = null;
+        windowRecordedCount += recordedCount - recordedCounts[position];
+        recordedCounts[position] = recordedCount;
+        position = position + 1 == recordedCounts.length ? 0 : position + 1;
+        flushedCount += recordedCount;
+        if (interval.getTotalCount() == 0) {
+            spareHistogram = interval;
+            interval = null;
+        }
+
+        S slot = interval == null ? null : storage.store(interval);
+        S evicted = sink.slide(slot);
+        if (interval == null && evicted == null) {
+            return false;
+        }
+
+        if (interval != null) {
+            if (windowHistogram == null) {
+                windowHistogram = new Histogram(interval.getLowestDiscernibleValue(),
+                        interval.getHighestTrackableValue(), interval.getNumberOfSignificantValueDigits());
+            }
+            windowHistogram.add(interval);
+            if (!storage.keepsInterval()) {
+                spareHistogram = interval;
+            }
+        }
+        if (evicted != null) {
+            storage.subtract(windowHistogram, evicted);
+            Histogram released = storage.release(evicted);
+            if (spareHistogram == null) {
+                spareHistogram = released;
+            }
+        }
+        return true;
+    }
+
+    long getTotalCount() {
+        return windowHistogram == null ? 0 : windowHistogram.getTotalCount();
+    }
+
+    /**
+     * @return a number of recorded values in the window, values added by corrections aren't counted
+     */
+    long getRecordedCount() {
+        return windowRecordedCount;
+    }
+
+    long getFlushedCount() {
+        return flushedCount;
+    }
+
+    Histogram copy() {
+        return windowHistogram.copy();
+    }
+
+    /**
+     * @return a number of flushes which have been slid into the window
+     */
+    long getSequence() {
+        return sink.getInsertedCount();
+    }
+
+    /**
+     * @param sequence a value returned by {@link #getSequence()} before
+     * @return a sum of intervals flushed after the sequence which are still in the window, or null if there are none
+     */
+    Histogram copySince(long sequence) {
+        if (windowHistogram == null) {
+            return null;
+        }
+        final Histogram sum = new Histogram(windowHistogram.getLowestDiscernibleValue(),
+                windowHistogram.getHighestTrackableValue(), windowHistogram.getNumberOfSignificantValueDigits());
+        sink.forEachSince(sequence, new Sink.Visitor<S>() {
+            @Override
+            public void visit(S slot) {
+                storage.add(sum, slot);
+            }
+        });
+        return sum.getTotalCount() == 0 ? null : sum;
+    }
+}
@@ -0,0 +1,62 @@
+package eu.inn.metrics.hdr;
+
+import org.HdrHistogram.Histogram;
+import org.LatencyUtils.LatencyStats;
+
+/**
+ * Records values into LatencyStats, so they are corrected for pauses detected by its pause detector.
+ *
+ * LatencyStats swaps its recording histograms with a writer-reader phaser on every flush,
+ * so a value recorded concurrently with a flush gets either into the current interval or into the next one.
+ */
+class LatencyStatsRecorder implements IntervalRecorder {
+
+    private final LatencyStats stats;
+
+    /**
+     * the stats is stopped on release only if it's owned by the recorder
+     */
+    private final boolean owned;
+
+    /**
+     * uncorrected values of the latest interval, it's reused by every flush
+     */
+    private Histogram uncorrected;
+
+    LatencyStatsRecorder(LatencyStats stats, boolean owned) {
+        this.stats = stats;
+        this.owned = owned;
+    }
+
+    @Override
+    public void recordValue(long value) {
+        stats.recordLatency(value);
+    }
+
+    @Override
+    public Histogram getIntervalHistogram(Histogram recycle) {
+        if (recycle == null) {
+            return stats.getIntervalHistogram();
+        }
+        stats.getIntervalHistogramInto(recycle);
+        return recycle;
+    }
+
+    @Override
+    public long getIntervalRecordedCount() {
+        if (uncorrected == null) {
+            uncorrected = stats.getLatestUncorrectedIntervalHistogram();
+        } else {
+            stats.getLatestUncorrectedIntervalHistogramInto(uncorrected);
+        }
+        return uncorrected.getTotalCount();
+    }
+
+    @Override
+    public void release() {
+        if (owned) {
+            // it deregisters the stats from the pause detector
+            stats.stop();
+        }
+    }
+}
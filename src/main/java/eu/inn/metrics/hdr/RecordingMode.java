@@ -0,0 +1,24 @@
+package eu.inn.metrics.hdr;
+
+/**
+ * How HDR reservoirs record values, modes are ordered from the cheapest one to the most expensive one
+ */
+public enum RecordingMode {
+
+    /**
+     * values are recorded as is into HdrHistogram recorders
+     */
+    RAW,
+
+    /**
+     * values are corrected for coordinated omission with a fixed expected interval between values,
+     * a value longer than the interval adds values for omitted intervals
+     */
+    EXPECTED_INTERVAL,
+
+    /**
+     * values are recorded into LatencyStats, they are corrected for pauses detected by its pause detector
+     * with an interval estimated from the latest values
+     */
+    LATENCY_STATS
+}
@@ -0,0 +1,150 @@
+package eu.inn.metrics.hdr;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.PackedHistogram;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * Converts interval histograms into window slots and back
+ *
+ * @param <S> a type of a slot
+ */
+abstract class SlotStorage<S> {
+
+    /**
+     * @return a slot with values of the interval histogram
+     */
+    abstract S store(Histogram interval);
+
+    abstract void subtract(Histogram window, S slot);
+
+    abstract void add(Histogram target, S slot);
+
+    /**
+     * @return true if the interval histogram becomes the slot, otherwise it could be reused right after {@link #store}
+     */
+    abstract boolean keepsInterval();
+
+    /**
+     * It's called for every slot which has been slid out of the window, in the order they have been stored
+     *
+     * @return a histogram of the slot if it could be reused, or null
+     */
+    Histogram release(S slot) {
+        return null;
+    }
+
+    static SlotStorage<?> of(WindowStorage storage) {
+        switch (storage) {
+            case DENSE:
+                return new Dense();
+            case PACKED:
+                return new Packed();
+            case COMPRESSED:
+                return new Compressed();
+            case DIRECT:
+                return new DirectSlotStorage();
+            default:
+                throw new IllegalArgumentException("Unknown window storage " + storage);
+        }
+    }
+
+    static final class Dense extends SlotStorage<Histogram> {
+        @Override
+        Histogram store(Histogram interval) {
+            return interval;
+        }
+
+        @Override
+        void subtract(Histogram window, Histogram slot) {
+            window.subtract(slot);
+        }
+
+        @Override
+        void add(Histogram target, Histogram slot) {
+            target.add(slot);
+        }
+
+        @Override
+        boolean keepsInterval() {
+            return true;
+        }
+
+        @Override
+        Histogram release(Histogram slot) {
+            return slot;
+        }
+    }
+
+    static final class Packed extends SlotStorage<Histogram> {
+        @Override
+        Histogram store(Histogram interval) {
+            PackedHistogram slot = new PackedHistogram(interval.getLowestDiscernibleValue(),
+                    interval.getHighestTrackableValue(), interval.getNumberOfSignificantValueDigits());
+            slot.add(interval);
+            slot.setStartTimeStamp(interval.getStartTimeStamp());
+            slot.setEndTimeStamp(interval.getEndTimeStamp());
+            return slot;
+        }
+
+        @Override
+        void subtract(Histogram window, Histogram slot) {
+            window.subtract(slot);
+        }
+
+        @Override
+        void add(Histogram target, Histogram slot) {
+            target.add(slot);
+        }
+
+        @Override
+        boolean keepsInterval() {
+            return false;
+        }
+    }
+
+    static final class Compressed extends SlotStorage<byte[]> {
+
+        /**
+         * a buffer for encoding, it's accessed only by the flusher
+         */
+        private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+        @Override
+        byte[] store(Histogram interval) {
+            int capacity = interval.getNeededByteBufferCapacity();
+            if (buffer.capacity() < capacity) {
+                buffer = ByteBuffer.allocate(capacity);
+            }
+            buffer.clear();
+            int length = interval.encodeIntoCompressedByteBuffer(buffer);
+            return Arrays.copyOf(buffer.array(), length);
+        }
+
+        @Override
+        void subtract(Histogram window, byte[] slot) {
+            window.subtract(decode(slot));
+        }
+
+        @Override
+        void add(Histogram target, byte[] slot) {
+            target.add(decode(slot));
+        }
+
+        @Override
+        boolean keepsInterval() {
+            return false;
+        }
+
+        static Histogram decode(byte[] slot) {
+            try {
+                return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(slot), 0);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Window slot is corrupted", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package eu.inn.metrics.hdr;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Spreads writers over several HdrHistogram recorders chosen by a thread hash,
+ * so concurrent writers don't contend on the same cache lines.
+ * Interval histograms of all stripes are merged on flush.
+ *
+ * Values are recorded as they are, a correction for coordinated omission with an expected interval
+ * is applied while the interval histograms are merged, so it doesn't cost writers anything.
+ */
+class StripedRecorder implements IntervalRecorder {
+
+    private final Recorder[] recorders;
+
+    /**
+     * interval histograms returned by the recorders, they are given back to be reused on the next flush
+     */
+    private final Histogram[] intervalHistograms;
+
+    private final int mask;
+
+    private final long lowestDiscernibleValue;
+
+    private final long highestTrackableValue;
+
+    private final int numberOfSignificantValueDigits;
+
+    /**
+     * values are corrected for coordinated omission with the interval if it's positive
+     */
+    private final long expectedInterval;
+
+    /**
+     * it's accessed only by the flusher
+     */
+    private long intervalRecordedCount = 0;
+
+    StripedRecorder(int stripes, long lowestDiscernibleValue, long highestTrackableValue, int numberOfSignificantValueDigits) {
+        this(stripes, lowestDiscernibleValue, highestTrackableValue, numberOfSignificantValueDigits, 0);
+    }
+
+    StripedRecorder(int stripes, long lowestDiscernibleValue, long highestTrackableValue, int numberOfSignificantValueDigits,
+                    long expectedInterval) {
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+        this.recorders = new Recorder[size];
+        this.intervalHistograms = new Histogram[size];
+        this.mask = size - 1;
+        this.lowestDiscernibleValue = lowestDiscernibleValue;
+        this.highestTrackableValue = highestTrackableValue;
+        this.numberOfSignificantValueDigits = numberOfSignificantValueDigits;
+        this.expectedInterval = expectedInterval;
+        for (int i = 0; i < size; i++) {
+            recorders[i] = new Recorder(lowestDiscernibleValue, highestTrackableValue, numberOfSignificantValueDigits);
+        }
+    }
+
+    @Override
+    public void recordValue(long value) {
+        recorders[stripe()].recordValue(value);
+    }
+
+    @Override
+    public Histogram getIntervalHistogram(Histogram recycle) {
+        Histogram merged = recycle;
+        if (merged == null) {
+            merged = new Histogram(lowestDiscernibleValue, highestTrackableValue, numberOfSignificantValueDigits);
+        } else {
+            merged.reset();
+        }
+        merged.setStartTimeStamp(Long.MAX_VALUE);
+        intervalRecordedCount = 0;
+        for (int i = 0; i < recorders.length; i++) {
+            Histogram interval = recorders[i].getIntervalHistogram(intervalHistograms[i]);
+            intervalHistograms[i] = interval;
+            intervalRecordedCount += interval.getTotalCount();
+            if (expectedInterval > 0) {
+                merged.addWhileCorrectingForCoordinatedOmission(interval, expectedInterval);
+            } else {
+                merged.add(interval);
+            }
+            merged.setStartTimeStamp(Math.min(merged.getStartTimeStamp(), interval.getStartTimeStamp()));
+            merged.setEndTimeStamp(Math.max(merged.getEndTimeStamp(), interval.getEndTimeStamp()));
+        }
+        return merged;
+    }
+
+    @Override
+    public long getIntervalRecordedCount() {
+        return intervalRecordedCount;
+    }
+
+    @Override
+    public void release() {
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
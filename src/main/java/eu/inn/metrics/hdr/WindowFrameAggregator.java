@@ -0,0 +1,89 @@
+package eu.inn.metrics.hdr;
+
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.Histogram;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+
+/**
+ * Merges frames written by {@link WindowFrameWriter} on many nodes,
+ * so percentiles are computed over values of all nodes instead of averaging percentiles of every node
+ */
+public class WindowFrameAggregator {
+
+    private final Map<String, Histogram> histograms = new TreeMap<>();
+
+    public void add(byte[] frame) throws IOException {
+        add(new ByteArrayInputStream(frame));
+    }
+
+    public synchronized void add(InputStream input) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        if (data.readInt() != WindowFrameWriter.MAGIC) {
+            throw new IOException("Input isn't a window frame");
+        }
+        int version = data.readUnsignedByte();
+        if (version != WindowFrameWriter.VERSION) {
+            throw new IOException("Unsupported window frame version " + version);
+        }
+        // the whole frame is decoded before it's merged, so a truncated or corrupted frame doesn't leave a partial merge
+        Map<String, Histogram> decoded = new TreeMap<>();
+        int count = data.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = data.readUTF();
+            byte[] encoded = new byte[data.readInt()];
+            data.readFully(encoded);
+            merge(decoded, name, decode(name, encoded));
+        }
+        for (Map.Entry<String, Histogram> entry : decoded.entrySet()) {
+            merge(histograms, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return a snapshot of the metric merged from all frames or null if there is no such metric
+     */
+    public synchronized Snapshot getSnapshot(String name) {
+        Histogram histogram = histograms.get(name);
+        return histogram == null ? null : new HistogramSnapshot(histogram.copy());
+    }
+
+    public synchronized SortedMap<String, Snapshot> getSnapshots() {
+        SortedMap<String, Snapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            snapshots.put(entry.getKey(), new HistogramSnapshot(entry.getValue().copy()));
+        }
+        return snapshots;
+    }
+
+    public synchronized void reset() {
+        histograms.clear();
+    }
+
+    private static void merge(Map<String, Histogram> histograms, String name, Histogram histogram) {
+        Histogram merged = histograms.get(name);
+        if (merged == null) {
+            // nodes could be configured differently, so the merged histogram grows to fit all of them
+            histogram.setAutoResize(true);
+            histograms.put(name, histogram);
+        } else {
+            merged.add(histogram);
+        }
+    }
+
+    private static Histogram decode(String name, byte[] encoded) throws IOException {
+        try {
+            return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(encoded), 0);
+        } catch (DataFormatException e) {
+            throw new IOException("Histogram of " + name + " is corrupted", e);
+        }
+    }
+}
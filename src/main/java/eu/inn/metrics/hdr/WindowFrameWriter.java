@@ -0,0 +1,75 @@
+package eu.inn.metrics.hdr;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Writes windows of all HDR timers and histograms of a registry into a single binary frame,
+ * frames of many nodes are merged by {@link WindowFrameAggregator}.
+ *
+ * A frame is a magic number, a format version, a number of metrics
+ * and a name with a compressed histogram for every metric. Metrics with empty windows are skipped.
+ */
+public class WindowFrameWriter {
+
+    static final int MAGIC = 0x48445246;
+
+    static final int VERSION = 1;
+
+    private final MetricRegistry registry;
+
+    public WindowFrameWriter(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            write(output);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return output.toByteArray();
+    }
+
+    public void write(OutputStream output) throws IOException {
+        int count = 0;
+        ByteArrayOutputStream metrics = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(metrics);
+        for (Map.Entry<String, Timer> entry : registry.getTimers().entrySet()) {
+            count += write(data, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Histogram> entry : registry.getHistograms().entrySet()) {
+            count += write(data, entry.getKey(), entry.getValue());
+        }
+        data.flush();
+
+        DataOutputStream frame = new DataOutputStream(output);
+        frame.writeInt(MAGIC);
+        frame.writeByte(VERSION);
+        frame.writeInt(count);
+        metrics.writeTo(frame);
+        frame.flush();
+    }
+
+    private static int write(DataOutputStream data, String name, Sampling metric) throws IOException {
+        Snapshot snapshot = metric.getSnapshot();
+        if (!(snapshot instanceof HistogramSnapshot) || snapshot.size() == 0) {
+            return 0;
+        }
+        byte[] histogram = ((HistogramSnapshot) snapshot).toCompressedBytes();
+        data.writeUTF(name);
+        data.writeInt(histogram.length);
+        data.write(histogram);
+        return 1;
+    }
+}
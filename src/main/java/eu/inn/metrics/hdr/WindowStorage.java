@@ -0,0 +1,30 @@
+package eu.inn.metrics.hdr;
+
+/**
+ * Defines how interval histograms are kept in a window of HdrLatencyReservoir.
+ * The merged window histogram is always a regular one, so the storage affects only the memory footprint
+ * of the window slots and the cost of a flush, not snapshots.
+ */
+public enum WindowStorage {
+
+    /**
+     * full-width histograms, the fastest option for busy timers
+     */
+    DENSE,
+
+    /**
+     * PackedHistogram slots, counts arrays of sparse histograms take only a few hundred bytes
+     */
+    PACKED,
+
+    /**
+     * compressed byte arrays, the smallest footprint, slots are inflated only when they are slid out of the window
+     */
+    COMPRESSED,
+
+    /**
+     * varint encoded values and counts in a direct buffer of the window, slots are kept off-heap,
+     * so they don't add to the work of the garbage collector
+     */
+    DIRECT
+}
@@ -0,0 +1,190 @@
+package eu.inn.metrics.sed;
+
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A snapshot with the same statistics as {@link com.codahale.metrics.WeightedSnapshot},
+ * but it's assembled by merging pre-sorted chunks, so it doesn't allocate an object per a sample
+ */
+final class ChunkedWeightedSnapshot extends Snapshot {
+
+    private final long[] values;
+
+    private final double[] normWeights;
+
+    private final double[] quantiles;
+
+    ChunkedWeightedSnapshot(List<SampleChunk> chunks, int size) {
+        this.values = new long[size];
+        this.normWeights = new double[size];
+        this.quantiles = new double[size];
+
+        merge(chunks);
+
+        double sumWeight = 0;
+        for (double weight : normWeights) {
+            sumWeight += weight;
+        }
+        for (int i = 0; i < size; i++) {
+            normWeights[i] = normWeights[i] / sumWeight;
+        }
+        for (int i = 1; i < size; i++) {
+            quantiles[i] = quantiles[i - 1] + normWeights[i - 1];
+        }
+    }
+
+    /**
+     * k-way merge of the chunks, the heap holds indexes of chunks ordered by their current values
+     */
+    private void merge(List<SampleChunk> chunks) {
+        int[] heap = new int[chunks.size()];
+        int[] positions = new int[chunks.size()];
+        int heapSize = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            if (chunks.get(i).size() > 0) {
+                heap[heapSize++] = i;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(chunks, heap, positions, heapSize, i);
+        }
+
+        int position = 0;
+        while (heapSize > 0) {
+            int chunkIndex = heap[0];
+            SampleChunk chunk = chunks.get(chunkIndex);
+            int chunkPosition = positions[chunkIndex]++;
+            values[position] = chunk.values[chunkPosition];
+            normWeights[position] = chunk.weights[chunkPosition];
+            position++;
+            if (positions[chunkIndex] == chunk.size()) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(chunks, heap, positions, heapSize, 0);
+        }
+    }
+
+    private static void siftDown(List<SampleChunk> chunks, int[] heap, int[] positions, int heapSize, int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < heapSize && head(chunks, positions, heap[left]) < head(chunks, positions, heap[smallest])) {
+                smallest = left;
+            }
+            if (right < heapSize && head(chunks, positions, heap[right]) < head(chunks, positions, heap[smallest])) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            int tmp = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = tmp;
+            i = smallest;
+        }
+    }
+
+    private static long head(List<SampleChunk> chunks, int[] positions, int chunkIndex) {
+        return chunks.get(chunkIndex).values[positions[chunkIndex]];
+    }
+
+    @Override
+    public double getValue(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+
+        if (values.length == 0) {
+            return 0.0;
+        }
+
+        int posx = Arrays.binarySearch(quantiles, quantile);
+        if (posx < 0) {
+            posx = ((-posx) - 1) - 1;
+        }
+
+        if (posx < 1) {
+            return values[0];
+        }
+
+        if (posx >= values.length) {
+            return values[values.length - 1];
+        }
+
+        return values[posx];
+    }
+
+    @Override
+    public long[] getValues() {
+        return Arrays.copyOf(values, values.length);
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public long getMax() {
+        if (values.length == 0) {
+            return 0;
+        }
+        return values[values.length - 1];
+    }
+
+    @Override
+    public double getMean() {
+        if (values.length == 0) {
+            return 0;
+        }
+
+        double sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += values[i] * normWeights[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public long getMin() {
+        if (values.length == 0) {
+            return 0;
+        }
+        return values[0];
+    }
+
+    @Override
+    public double getStdDev() {
+        if (values.length <= 1) {
+            return 0;
+        }
+
+        final double mean = getMean();
+        double variance = 0;
+
+        for (int i = 0; i < values.length; i++) {
+            final double diff = values[i] - mean;
+            variance += normWeights[i] * diff * diff;
+        }
+
+        return Math.sqrt(variance);
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, UTF_8))) {
+            for (long value : values) {
+                out.printf("%d%n", value);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package eu.inn.metrics.sed;
+
+import com.codahale.metrics.Clock;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A forward-decaying priority sampler, it keeps the same statistically representative sample
+ * as {@link com.codahale.metrics.ExponentiallyDecayingReservoir} does
+ * (see http://dimacs.rutgers.edu/~graham/pubs/papers/fwddecay.pdf),
+ * but samples are stored in a primitive min-heap ordered by priority,
+ * so an update doesn't allocate anything.
+ *
+ * The sampler lives for a single flush period: {@link #drain()} hands the samples over to the flusher
+ * and starts a new period with a new landmark, so weights never need to be rescaled.
+ */
+final class ForwardDecayingSampler {
+
+    private final int capacity;
+
+    private final double alpha;
+
+    private final long[] values;
+
+    private final double[] weights;
+
+    private final double[] priorities;
+
+    private int count = 0;
+
+    private final Clock clock;
+
+    private volatile long landmark;
+
+    /**
+     * the lowest priority in a full heap, samples with lower priorities are rejected without locking
+     */
+    private volatile double admissionThreshold = 0;
+
+    ForwardDecayingSampler(int capacity, double alpha) {
+        this(capacity, alpha, Clock.defaultClock());
+    }
+
+    ForwardDecayingSampler(int capacity, double alpha, Clock clock) {
+        this.capacity = capacity;
+        this.alpha = alpha;
+        this.clock = clock;
+        this.landmark = clock.getTick();
+        this.values = new long[capacity];
+        this.weights = new double[capacity];
+        this.priorities = new double[capacity];
+    }
+
+    void update(long value) {
+        final double weight = Math.exp(alpha * (clock.getTick() - landmark) / 1e9);
+        final double priority = weight / ThreadLocalRandom.current().nextDouble();
+        if (priority <= admissionThreshold) {
+            return;
+        }
+        synchronized (this) {
+            if (count < capacity) {
+                values[count] = value;
+                weights[count] = weight;
+                priorities[count] = priority;
+                siftUp(count++);
+                if (count == capacity) {
+                    admissionThreshold = priorities[0];
+                }
+            } else if (priorities[0] < priority) {
+                values[0] = value;
+                weights[0] = weight;
+                priorities[0] = priority;
+                siftDown(0);
+                admissionThreshold = priorities[0];
+            }
+        }
+    }
+
+    /**
+     * Moves all samples into a chunk and starts a new period
+     *
+     * @return a chunk of samples or null if there were no updates
+     */
+    synchronized SampleChunk drain() {
+        SampleChunk chunk = null;
+        if (count > 0) {
+            long[] chunkValues = new long[count];
+            double[] chunkWeights = new double[count];
+            System.arraycopy(values, 0, chunkValues, 0, count);
+            System.arraycopy(weights, 0, chunkWeights, 0, count);
+            chunk = new SampleChunk(chunkValues, chunkWeights);
+        }
+        count = 0;
+        admissionThreshold = 0;
+        landmark = clock.getTick();
+        return chunk;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (priorities[parent] <= priorities[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < count && priorities[left] < priorities[smallest]) {
+                smallest = left;
+            }
+            if (right < count && priorities[right] < priorities[smallest]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+        double weight = weights[i];
+        weights[i] = weights[j];
+        weights[j] = weight;
+        double priority = priorities[i];
+        priorities[i] = priorities[j];
+        priorities[j] = priority;
+    }
+}
@@ -0,0 +1,69 @@
+package eu.inn.metrics.sed;
+
+/**
+ * Weighted samples of a single flush period stored as parallel primitive arrays sorted by value
+ */
+final class SampleChunk {
+
+    final long[] values;
+
+    final double[] weights;
+
+    SampleChunk(long[] values, double[] weights) {
+        if (values.length != weights.length) {
+            throw new IllegalArgumentException("values and weights should have the same length");
+        }
+        this.values = values;
+        this.weights = weights;
+        sort(0, values.length - 1);
+    }
+
+    int size() {
+        return values.length;
+    }
+
+    private void sort(int from, int to) {
+        while (to - from > 16) {
+            long pivot = median(values[from], values[(from + to) >>> 1], values[to]);
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // recurse into the smaller part to bound the stack depth
+            if (j - from < to - i) {
+                sort(from, j);
+                from = i;
+            } else {
+                sort(i, to);
+                to = j;
+            }
+        }
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && values[j - 1] > values[j]; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private static long median(long a, long b, long c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private void swap(int i, int j) {
+        long value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+        double weight = weights[i];
+        weights[i] = weights[j];
+        weights[j] = weight;
+    }
+}
@@ -1,97 +1,190 @@
 package eu.inn.metrics.sed;
 
 import com.codahale.metrics.*;
-import eu.inn.metrics.common.NamedThreadFactory;
+import eu.inn.metrics.common.FlushListener;
+import eu.inn.metrics.common.FlushScheduler;
+import eu.inn.metrics.common.RecorderHandoff;
 import eu.inn.metrics.common.Sink;
 import eu.inn.metrics.common.TimeWindowReservoirBuilder;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public class SlidingExponentialDecayingReservoir implements Reservoir {
 
-    private final Sink<Collection<WeightedSnapshot.WeightedSample>> sink;
+    /**
+     * the same defaults as ExponentiallyDecayingReservoir has
+     */
+    private static final int DEFAULT_SIZE = 1028;
 
-    private volatile ExponentiallyDecayingReservoir currentReservoir = new ExponentiallyDecayingReservoir();
+    private static final double DEFAULT_ALPHA = 0.015;
+
+    /**
+     * it's null while the reservoir hibernates
+     */
+    private volatile Sink<SampleChunk> sink;
+
+    /**
+     * a number of samples in the sink, it's updated only by the flusher
+     */
+    private volatile int windowSize = 0;
 
     private final static WeightedSnapshot emptySnapshot = new WeightedSnapshot(Collections.EMPTY_LIST);
 
-    private final static ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory());
+    private final int size;
+
+    private final double alpha;
+
+    private final int sinkSize;
 
     private final long flushPeriod;
 
     private final TimeUnit flushUnit;
 
-    private static Field valuesAccessor;
+    private final FlushScheduler flushScheduler;
+
+    /**
+     * a clock of sample weights
+     */
+    private final Clock clock;
+
+    private FlushScheduler.Registration registration;
 
-    static {
-        try {
-            valuesAccessor = ExponentiallyDecayingReservoir.class.getDeclaredField("values");
-            valuesAccessor.setAccessible(true);
-        } catch (NoSuchFieldException e) {
-            throw new RuntimeException(e);
+    private final Object lock = new Object();
+
+    /**
+     * the scheduler keeps only a weak reference to the flusher,
+     * so the reservoir is deregistered as soon as it becomes unreachable
+     */
+    private final FlushListener flusher = new FlushListener() {
+        @Override
+        public void flush() {
+            samplers.flush();
         }
-    }
+    };
+
+    private final RecorderHandoff<ForwardDecayingSampler> samplers;
 
     public SlidingExponentialDecayingReservoir(long flushPeriod, TimeUnit flushUnit, int sinkSize) {
+        this(DEFAULT_SIZE, DEFAULT_ALPHA, flushPeriod, flushUnit, sinkSize);
+    }
+
+    /**
+     * @param size the number of samples to keep per a flush period
+     * @param alpha the exponential decay factor
+     */
+    public SlidingExponentialDecayingReservoir(int size, double alpha, long flushPeriod, TimeUnit flushUnit, int sinkSize) {
+        this(size, alpha, FlushScheduler.getDefault(), Clock.defaultClock(), flushPeriod, flushUnit, sinkSize, false);
+    }
+
+    SlidingExponentialDecayingReservoir(int size, double alpha, FlushScheduler flushScheduler, Clock clock,
+                                        long flushPeriod, TimeUnit flushUnit, int sinkSize, boolean hibernation) {
+        this.flushScheduler = flushScheduler;
+        this.clock = clock;
+        this.size = size;
+        this.alpha = alpha;
+        this.sinkSize = sinkSize;
         this.flushPeriod = flushPeriod;
         this.flushUnit = flushUnit;
-        this.sink = new Sink<>(sinkSize);
-        scheduleHistogramFlush();
+        this.samplers = new RecorderHandoff<ForwardDecayingSampler>(lock, hibernation) {
+            @Override
+            protected ForwardDecayingSampler wakeUp() {
+                return SlidingExponentialDecayingReservoir.this.wakeUp();
+            }
+
+            @Override
+            protected boolean drain(ForwardDecayingSampler sampler) {
+                return slide(sampler);
+            }
+
+            @Override
+            protected void hibernate(ForwardDecayingSampler sampler) {
+                SlidingExponentialDecayingReservoir.this.hibernate();
+            }
+
+            @Override
+            protected void record(ForwardDecayingSampler sampler, long value) {
+                sampler.update(value);
+            }
+        };
+        samplers.start();
     }
 
     @Override
     public int size() {
-        int size = 0;
-        for (Collection<WeightedSnapshot.WeightedSample> s : sink.getAll()) {
-            size += s.size();
-        }
-        return size;
+        return windowSize;
     }
 
     @Override
     public void update(long value) {
-        currentReservoir.update(value);
+        samplers.update(value);
     }
 
     @Override
     public Snapshot getSnapshot() {
-        if (size() == 0) {
+        Sink<SampleChunk> current = sink;
+        if (current == null) {
+            return emptySnapshot;
+        }
+        ChunkCollector collector = new ChunkCollector();
+        current.forEach(collector);
+        if (collector.size == 0) {
             return emptySnapshot;
         } else {
-            ArrayList<WeightedSnapshot.WeightedSample> weightedSamples = new ArrayList<>(size());
-            for (Collection<WeightedSnapshot.WeightedSample> s : sink.getAll()) {
-                weightedSamples.addAll(s);
-            }
-            return new WeightedSnapshot(weightedSamples);
+            return new ChunkedWeightedSnapshot(collector.chunks, collector.size);
         }
     }
 
-    private void scheduleHistogramFlush() {
-        executor.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                Collection<WeightedSnapshot.WeightedSample> valuesSnapshot;
-                if (currentReservoir.size() > 0) {
-                    try {
-                        ExponentiallyDecayingReservoir reservoirSnapshot = currentReservoir;
-                        currentReservoir = new ExponentiallyDecayingReservoir();
-                        valuesSnapshot = ((Map<Double, WeightedSnapshot.WeightedSample>) valuesAccessor.get(reservoirSnapshot)).values();
-                    } catch (IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
-                } else {
-                    valuesSnapshot = null;
-                }
-                sink.add(valuesSnapshot);
-            }
-        }, flushPeriod, flushPeriod, flushUnit);
+    /**
+     * @return true if the reservoir has dropped its buffers and isn't flushed until the next update
+     */
+    public boolean isHibernating() {
+        return samplers.isHibernating();
+    }
+
+    /**
+     * it's called under the lock
+     *
+     * @return true if the sink is empty
+     */
+    private boolean slide(ForwardDecayingSampler sampler) {
+        SampleChunk chunk = sampler.drain();
+        SampleChunk evicted = sink.slide(chunk);
+        if (chunk != null || evicted != null) {
+            windowSize = windowSize + (chunk == null ? 0 : chunk.size()) - (evicted == null ? 0 : evicted.size());
+        }
+        return windowSize == 0;
+    }
+
+    /**
+     * it's called under the lock
+     */
+    private ForwardDecayingSampler wakeUp() {
+        sink = new Sink<>(sinkSize);
+        registration = flushScheduler.register(flusher, flushPeriod, flushUnit);
+        return new ForwardDecayingSampler(size, alpha, clock);
+    }
+
+    /**
+     * it's called under the lock
+     */
+    private void hibernate() {
+        sink = null;
+        registration.cancel();
+        registration = null;
+    }
+
+    private static class ChunkCollector implements Sink.Visitor<SampleChunk> {
+        private final List<SampleChunk> chunks = new ArrayList<>();
+        private int size = 0;
+
+        @Override
+        public void visit(SampleChunk chunk) {
+            chunks.add(chunk);
+            size += chunk.size();
+        }
     }
 
     public static SlidingExponentialDecayingReservoir.Builder builder() {
@@ -100,9 +193,30 @@ public class SlidingExponentialDecayingReservoir implements Reservoir {
 
     public static class Builder extends TimeWindowReservoirBuilder<SlidingExponentialDecayingReservoir> {
 
+        private int size = DEFAULT_SIZE;
+
+        private double alpha = DEFAULT_ALPHA;
+
+        /**
+         * @param size the number of samples to keep per a flush period
+         */
+        public Builder size(int size) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("size should be positive integer");
+            }
+            this.size = size;
+            return this;
+        }
+
+        public Builder alpha(double alpha) {
+            this.alpha = alpha;
+            return this;
+        }
+
         public SlidingExponentialDecayingReservoir build() {
             int sinkSize = (int) Math.ceil((double) windowUnit.toNanos(window) / flushUnit.toNanos(flushPeriod));
-            return new SlidingExponentialDecayingReservoir(flushPeriod, flushUnit, sinkSize);
+            return new SlidingExponentialDecayingReservoir(size, alpha, flushScheduler, getClock(),
+                    flushPeriod, flushUnit, sinkSize, hibernation);
         }
     }
 }
@@ -1,7 +1,20 @@
 package eu.inn.metrics;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer;
+import eu.inn.metrics.common.ManualFlushScheduler;
+import eu.inn.metrics.hdr.HdrLatencyReservoir;
 import org.testng.annotations.Test;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.AssertJUnit.*;
+
 public class CustomMetricRegistryTest {
 
     @Test
@@ -12,4 +25,189 @@ public class CustomMetricRegistryTest {
         registry.meter("meter");
         registry.counter("counter");
     }
+
+    @Test
+    public void returnTheSameMetricForTheSameName() {
+        CustomMetricRegistry registry = CustomMetricRegistry.builder().build();
+
+        assertSame(registry.timer("timer"), registry.timer("timer"));
+        assertSame(registry.counter("counter"), registry.getCounters().get("counter"));
+    }
+
+    @Test
+    public void createNewMetricAfterRemoval() {
+        CustomMetricRegistry registry = CustomMetricRegistry.builder().build();
+        Timer timer = registry.timer("timer");
+
+        assertTrue(registry.remove("timer"));
+
+        Timer recreated = registry.timer("timer");
+        assertNotSame(timer, recreated);
+        assertSame(recreated, registry.getTimers().get("timer"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectNameOfDifferentMetricType() {
+        CustomMetricRegistry registry = CustomMetricRegistry.builder().build();
+        registry.timer("metric");
+        registry.meter("metric");
+    }
+
+    @Test(timeOut = 5000)
+    public void slowCreationDoesNotBlockOtherNames() throws InterruptedException {
+        final CountDownLatch building = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CustomMetricRegistry registry = CustomMetricRegistry.builder()
+                .countersBuilder(new MetricBuilder<Counter>() {
+                    @Override
+                    public Counter newMetric() {
+                        building.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return new Counter();
+                    }
+
+                    @Override
+                    public boolean isInstance(Metric metric) {
+                        return metric instanceof Counter;
+                    }
+                })
+                .build();
+        Thread slow = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                registry.counter("slow");
+            }
+        });
+        slow.start();
+        building.await();
+
+        assertNotNull(registry.timer("fast"));
+
+        release.countDown();
+        slow.join();
+        assertTrue(registry.getCounters().containsKey("slow"));
+    }
+
+    @Test
+    public void registerTaggedMetricsUnderFlatNames() {
+        CustomMetricRegistry registry = CustomMetricRegistry.builder().build();
+
+        Timer timer = registry.timer("http", "route", "home", "status", "200");
+
+        assertSame(timer, registry.timer("http", "route", "home", "status", "200"));
+        assertSame(timer, registry.timer("http", new String[]{"route", "home", "status", "200"}));
+        assertSame(timer, registry.getTimers().get("http.route.home.status.200"));
+        assertNotSame(timer, registry.timer("http", "route", "home", "status", "500"));
+        assertNotSame(timer, registry.timer("http", "route", "home"));
+    }
+
+    @Test
+    public void createNewTaggedMetricAfterRemoval() {
+        CustomMetricRegistry registry = CustomMetricRegistry.builder().build();
+        Counter counter = registry.counter("requests", "route", "home");
+
+        assertTrue(registry.remove("requests.route.home"));
+
+        assertNotSame(counter, registry.counter("requests", "route", "home"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectTagsWithDots() {
+        CustomMetricRegistry.builder().build().timer("req", "host", "a.b");
+    }
+
+    @Test
+    public void removeAllTaggedMetricsFlattenedIntoTheSameName() {
+        CustomMetricRegistry registry = CustomMetricRegistry.builder().build();
+        Timer timer = registry.timer("req", "host", "a", "port", "80");
+        assertSame(timer, registry.timer("req.host.a", "port", "80"));
+
+        assertTrue(registry.remove("req.host.a.port.80"));
+
+        Timer recreated = registry.timer("req.host.a", "port", "80");
+        assertNotSame(timer, recreated);
+        assertSame(recreated, registry.timer("req", "host", "a", "port", "80"));
+        assertSame(recreated, registry.getTimers().get("req.host.a.port.80"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectUnpairedTags() {
+        CustomMetricRegistry.builder().build().timer("http", "route", "home", "status");
+    }
+
+    @Test
+    public void removeIdleMetrics() {
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        CustomMetricRegistry registry = CustomMetricRegistry.builder()
+                .removeIdleAfter(20, TimeUnit.MILLISECONDS)
+                .flushScheduler(scheduler)
+                .build();
+        registry.counter("idle").inc();
+        registry.register("gauge", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return 1;
+            }
+        });
+
+        registry.counter("active").inc();
+        scheduler.advance(20, TimeUnit.MILLISECONDS);
+        registry.counter("active").inc();
+        scheduler.advance(20, TimeUnit.MILLISECONDS);
+
+        assertFalse(registry.getCounters().containsKey("idle"));
+        assertTrue(registry.getCounters().containsKey("active"));
+        assertTrue(registry.getGauges().containsKey("gauge"));
+    }
+
+    @Test
+    public void hibernateIdleReservoirs() {
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        CustomMetricRegistry registry = CustomMetricRegistry.builder()
+                .fromFactory(new TimeWindowMetricBuilderFactory(HdrLatencyReservoir.builder()
+                        .flushScheduler(scheduler)
+                        .flushEvery(1, TimeUnit.SECONDS)
+                        .window(2, TimeUnit.SECONDS)))
+                .hibernateIdleReservoirs()
+                .build();
+        HdrLatencyReservoir reservoir = (HdrLatencyReservoir) ((TimeWindowTimer) registry.timer("timer")).getReservoir();
+
+        registry.timer("timer").update(1, TimeUnit.MILLISECONDS);
+        assertFalse(reservoir.isHibernating());
+
+        scheduler.advance(4, TimeUnit.SECONDS);
+        assertTrue(reservoir.isHibernating());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void hibernateOnlyReservoirsOfTimeWindowFactory() {
+        CustomMetricRegistry.builder()
+                .fromFactory(new MetricBuilderFactory() {
+                    @Override
+                    public MetricBuilder<Histogram> histogramsBuilder() {
+                        return null;
+                    }
+
+                    @Override
+                    public MetricBuilder<Timer> timersBuilder() {
+                        return null;
+                    }
+
+                    @Override
+                    public MetricBuilder<Counter> countersBuilder() {
+                        return null;
+                    }
+
+                    @Override
+                    public MetricBuilder<Meter> metersBuilder() {
+                        return null;
+                    }
+                })
+                .hibernateIdleReservoirs()
+                .build();
+    }
 }
@@ -0,0 +1,66 @@
+package eu.inn.metrics;
+
+import com.codahale.metrics.Timer;
+import eu.inn.metrics.hdr.HdrLatencyReservoir;
+import eu.inn.metrics.hdr.HistogramSnapshot;
+import org.testng.annotations.Test;
+
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.AssertJUnit.*;
+
+public class DeltaSnapshotCursorTest {
+
+    @Test
+    public void returnOnlyValuesFlushedSinceThePreviousCall() throws InterruptedException {
+        CustomMetricRegistry registry = CustomMetricRegistry.builder()
+                .fromFactory(new TimeWindowMetricBuilderFactory(HdrLatencyReservoir.builder()
+                        .stripes(1)
+                        .lowestTrackableLatency(1)
+                        .flushEvery(10, TimeUnit.MILLISECONDS)
+                        .window(1, TimeUnit.SECONDS)))
+                .build();
+        DeltaSnapshotCursor cursor = new DeltaSnapshotCursor(registry);
+        Timer timer = registry.timer("timer");
+        registry.timer("idle");
+
+        update(timer, 100);
+        Thread.sleep(30);
+        SortedMap<String, HistogramSnapshot> first = cursor.next();
+
+        update(timer, 10);
+        Thread.sleep(30);
+        SortedMap<String, HistogramSnapshot> second = cursor.next();
+
+        assertEquals(1, first.size());
+        assertEquals(100, first.get("timer").size());
+        assertEquals(10, second.get("timer").size());
+        assertEquals(110, timer.getSnapshot().size());
+        assertTrue(cursor.next().isEmpty());
+    }
+
+    @Test
+    public void startFromTheOldestIntervalForNewReporters() throws InterruptedException {
+        CustomMetricRegistry registry = CustomMetricRegistry.builder()
+                .fromFactory(new TimeWindowMetricBuilderFactory(HdrLatencyReservoir.builder()
+                        .stripes(1)
+                        .lowestTrackableLatency(1)
+                        .flushEvery(10, TimeUnit.MILLISECONDS)
+                        .window(1, TimeUnit.SECONDS)))
+                .build();
+        Timer timer = registry.timer("timer");
+
+        update(timer, 100);
+        Thread.sleep(30);
+
+        assertEquals(100, new DeltaSnapshotCursor(registry).next().get("timer").size());
+        assertEquals(100, new DeltaSnapshotCursor(registry).next().get("timer").size());
+    }
+
+    private static void update(Timer timer, int count) {
+        for (int i = 1; i <= count; i++) {
+            timer.update(i, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -2,7 +2,11 @@ package eu.inn.metrics;
 
 import com.codahale.metrics.Reservoir;
 import com.codahale.metrics.Snapshot;
+import eu.inn.metrics.bucket.LogLinearBucketReservoir;
+import eu.inn.metrics.common.ManualFlushScheduler;
+import eu.inn.metrics.common.TimeWindowReservoirBuilder;
 import eu.inn.metrics.hdr.HdrLatencyReservoir;
+import eu.inn.metrics.hdr.RecordingMode;
 import eu.inn.metrics.sed.SlidingExponentialDecayingReservoir;
 import org.LatencyUtils.LatencyStats;
 import org.testng.annotations.DataProvider;
@@ -20,39 +24,219 @@ public class LatencyReservoirTest {
         assertEmpty(reservoir);
     }
 
+    @Test
+    public void defaultScheduler_FlushesReservoir() throws InterruptedException {
+        Reservoir reservoir = LogLinearBucketReservoir.builder()
+                .flushEvery(10, TimeUnit.MILLISECONDS)
+                .window(1, TimeUnit.MINUTES)
+                .build();
+
+        track(reservoir, 100);
+        for (int i = 0; i < 500 && reservoir.size() == 0; i++) {
+            Thread.sleep(10);
+        }
+
+        assertNonEmpty(reservoir, 100);
+    }
+
     @Test(dataProvider = "longReservoirs")
-    public void nonEmptyReservoir_CollectAllMetricsFromTheFirstWindow(Reservoir reservoir) throws InterruptedException {
+    public void nonEmptyReservoir_CollectAllMetricsFromTheFirstWindow(ManualFlushScheduler scheduler, Reservoir reservoir) {
         final int metricsCount = 100;
 
         track(reservoir, metricsCount);
 
-        Thread.sleep(110);
+        scheduler.advance(110, TimeUnit.MILLISECONDS);
 
         assertNonEmpty(reservoir, metricsCount);
     }
 
     @Test(dataProvider = "shortReservoirs")
-    public void nonEmptyReservoir_BecomesEmptyAfterOldWindowsSlided(Reservoir reservoir) throws InterruptedException {
+    public void nonEmptyReservoir_BecomesEmptyAfterOldWindowsSlided(ManualFlushScheduler scheduler, Reservoir reservoir) {
         final int metricsCount = 100;
 
         track(reservoir, metricsCount);
 
-        Thread.sleep(150);
+        scheduler.advance(150, TimeUnit.MILLISECONDS);
 
         assertEmpty(reservoir);
     }
 
     @Test(dataProvider = "shortReservoirs")
-    public void nonEmptyReservoir_BecomesOperationalAfterSliding(Reservoir reservoir) throws InterruptedException {
+    public void nonEmptyReservoir_BecomesOperationalAfterSliding(ManualFlushScheduler scheduler, Reservoir reservoir) {
         track(reservoir, 1000);
-        Thread.sleep(150);
+        scheduler.advance(150, TimeUnit.MILLISECONDS);
         assertEmpty(reservoir);
 
         track(reservoir, 10);
-        Thread.sleep(20);
+        scheduler.advance(20, TimeUnit.MILLISECONDS);
         assertNonEmpty(reservoir, 10);
     }
 
+    @Test
+    public void idleHdrReservoir_HibernatesAndWakesUpOnUpdate() {
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        HdrLatencyReservoir reservoir = HdrLatencyReservoir.builder()
+                .stripes(4)
+                .lowestTrackableLatency(1)
+                .hibernateWhenIdle(true)
+                .flushScheduler(scheduler)
+                .flushEvery(10, TimeUnit.MILLISECONDS)
+                .window(20, TimeUnit.MILLISECONDS)
+                .build();
+
+        track(reservoir, 100);
+        scheduler.advance(15, TimeUnit.MILLISECONDS);
+        assertFalse(reservoir.isHibernating());
+
+        scheduler.advance(100, TimeUnit.MILLISECONDS);
+        assertTrue(reservoir.isHibernating());
+        assertEmpty(reservoir);
+
+        track(reservoir, 10);
+        assertFalse(reservoir.isHibernating());
+        scheduler.advance(15, TimeUnit.MILLISECONDS);
+        assertNonEmpty(reservoir, 10);
+    }
+
+    @Test
+    public void idleTimeSlidingReservoir_HibernatesAndWakesUpOnUpdate() {
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        SlidingExponentialDecayingReservoir reservoir = SlidingExponentialDecayingReservoir.builder()
+                .hibernateWhenIdle(true)
+                .flushScheduler(scheduler)
+                .flushEvery(10, TimeUnit.MILLISECONDS)
+                .window(20, TimeUnit.MILLISECONDS)
+                .build();
+
+        track(reservoir, 100);
+        scheduler.advance(15, TimeUnit.MILLISECONDS);
+        assertFalse(reservoir.isHibernating());
+
+        scheduler.advance(100, TimeUnit.MILLISECONDS);
+        assertTrue(reservoir.isHibernating());
+        assertEmpty(reservoir);
+
+        track(reservoir, 10);
+        assertFalse(reservoir.isHibernating());
+        scheduler.advance(15, TimeUnit.MILLISECONDS);
+        assertNonEmpty(reservoir, 10);
+    }
+
+    @Test
+    public void latenciesUpToAnHourAreTrackedByDefault() {
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        HdrLatencyReservoir reservoir = HdrLatencyReservoir.builder()
+                .disablePauseCorrection()
+                .flushScheduler(scheduler)
+                .flushEvery(10, TimeUnit.MILLISECONDS)
+                .window(120, TimeUnit.MILLISECONDS)
+                .build();
+
+        reservoir.update(TimeUnit.MINUTES.toNanos(50));
+        scheduler.advance(10, TimeUnit.MILLISECONDS);
+
+        assertEquals((double) TimeUnit.MINUTES.toNanos(50), reservoir.getSnapshot().getMax(), TimeUnit.MINUTES.toNanos(50) / 100.0);
+        assertEquals(0, reservoir.getCappedCount());
+    }
+
+    @Test
+    public void latenciesLongerThanHighestTrackableOneAreCapped() {
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        HdrLatencyReservoir reservoir = HdrLatencyReservoir.builder()
+                .lowestTrackableLatency(1)
+                .highestTrackableLatency(TimeUnit.MINUTES.toNanos(1))
+                .capLongerLatencies()
+                .disablePauseCorrection()
+                .flushScheduler(scheduler)
+                .flushEvery(10, TimeUnit.MILLISECONDS)
+                .window(120, TimeUnit.MILLISECONDS)
+                .build();
+
+        reservoir.update(1);
+        reservoir.update(TimeUnit.HOURS.toNanos(2));
+        scheduler.advance(10, TimeUnit.MILLISECONDS);
+
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals(1, snapshot.getMin());
+        assertEquals((double) TimeUnit.MINUTES.toNanos(1), snapshot.getMax(), TimeUnit.MINUTES.toNanos(1) / 100.0);
+        assertEquals(1, reservoir.getCappedCount());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void latenciesLongerThanHighestTrackableOneFailUnlessCapped() {
+        HdrLatencyReservoir reservoir = HdrLatencyReservoir.builder()
+                .stripes(1)
+                .highestTrackableLatency(TimeUnit.MINUTES.toNanos(1))
+                .flushScheduler(new ManualFlushScheduler())
+                .build();
+
+        reservoir.update(TimeUnit.HOURS.toNanos(2));
+    }
+
+    @Test
+    public void expectedIntervalMode_AddsValuesForOmittedIntervals() {
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        HdrLatencyReservoir reservoir = HdrLatencyReservoir.builder()
+                .recordingMode(RecordingMode.EXPECTED_INTERVAL)
+                .expectedInterval(10, TimeUnit.NANOSECONDS)
+                .lowestTrackableLatency(1)
+                .flushScheduler(scheduler)
+                .flushEvery(10, TimeUnit.MILLISECONDS)
+                .window(120, TimeUnit.MILLISECONDS)
+                .build();
+
+        reservoir.update(100);
+        scheduler.advance(20, TimeUnit.MILLISECONDS);
+
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertEquals(10, snapshot.size());
+        assertEquals(10, snapshot.getMin());
+        assertEquals(100, snapshot.getMax());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void highestTrackableLatencyShouldBeAboveLowestOne() {
+        HdrLatencyReservoir.builder()
+                .lowestTrackableLatency(1000)
+                .highestTrackableLatency(1500)
+                .build();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void expectedIntervalMode_RequiresInterval() {
+        HdrLatencyReservoir.builder().recordingMode(RecordingMode.EXPECTED_INTERVAL).build();
+    }
+
+    @Test(dataProvider = "builders")
+    public void manuallyFlushedReservoir_SlidesWithoutSleeping(TimeWindowReservoirBuilder<?> builder) {
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        Reservoir reservoir = builder
+                .flushScheduler(scheduler)
+                .flushEvery(1, TimeUnit.SECONDS)
+                .window(1, TimeUnit.HOURS)
+                .build();
+
+        track(reservoir, 100);
+        scheduler.advance(1, TimeUnit.SECONDS);
+        assertNonEmpty(reservoir, 100);
+
+        scheduler.advance(59, TimeUnit.MINUTES);
+        assertNonEmpty(reservoir, 100);
+
+        scheduler.advance(1, TimeUnit.MINUTES);
+        assertEmpty(reservoir);
+    }
+
+    @DataProvider(name = "builders")
+    public static Object[][] builders() {
+        return new Object[][] {
+                {HdrLatencyReservoir.builder().stripes(4).lowestTrackableLatency(1)},
+                {SlidingExponentialDecayingReservoir.builder()},
+                {LogLinearBucketReservoir.builder()}
+        };
+    }
+
     @DataProvider(name = "longReservoirs")
     public static Object[][] longReservoirs() {
         return reservoirs(100);
@@ -63,31 +247,35 @@ public class LatencyReservoirTest {
         return reservoirs(10);
     }
 
+    /**
+     * @return pairs of a scheduler and a reservoir flushed by it
+     */
     public static Object[][] reservoirs(long flushInMillis) {
-        return new Object[][] {
-                {createHdrReservoir(flushInMillis)},
-                {createTimeSlidingReservoir(flushInMillis)}
-        };
-    }
-
-    private static Reservoir createHdrReservoir(long flushInMillis) {
         LatencyStats stats = LatencyStats.Builder.create()
                 .lowestTrackableLatency(1)
                 .highestTrackableLatency(Long.MAX_VALUE)
                 .build();
 
-        return HdrLatencyReservoir.builder()
-                .stats(stats)
-                .flushEvery(flushInMillis, TimeUnit.MILLISECONDS)
-                .window(120, TimeUnit.MILLISECONDS)
-               .build();
+        return new Object[][] {
+                withScheduler(HdrLatencyReservoir.builder().stats(stats), flushInMillis),
+                withScheduler(HdrLatencyReservoir.builder().stripes(4).lowestTrackableLatency(1), flushInMillis),
+                withScheduler(HdrLatencyReservoir.builder()
+                        .recordingMode(RecordingMode.EXPECTED_INTERVAL)
+                        .expectedInterval(1, TimeUnit.SECONDS)
+                        .lowestTrackableLatency(1), flushInMillis),
+                withScheduler(SlidingExponentialDecayingReservoir.builder(), flushInMillis),
+                withScheduler(LogLinearBucketReservoir.builder(), flushInMillis)
+        };
     }
 
-    private static Reservoir createTimeSlidingReservoir(long flushInMillis) {
-        return SlidingExponentialDecayingReservoir.builder()
+    private static Object[] withScheduler(TimeWindowReservoirBuilder<?> builder, long flushInMillis) {
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        Reservoir reservoir = builder
+                .flushScheduler(scheduler)
                 .flushEvery(flushInMillis, TimeUnit.MILLISECONDS)
                 .window(120, TimeUnit.MILLISECONDS)
                 .build();
+        return new Object[] {scheduler, reservoir};
     }
 
     private void track(Reservoir reservoir, int metricsCount) {
@@ -0,0 +1,92 @@
+package eu.inn.metrics;
+
+import com.codahale.metrics.Reservoir;
+import eu.inn.metrics.bucket.LogLinearBucketReservoir;
+import eu.inn.metrics.hdr.HdrLatencyReservoir;
+import org.LatencyUtils.LatencyStats;
+import org.LatencyUtils.PauseDetector;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.AssertJUnit.*;
+
+public class ReservoirStressTest {
+
+    private static final int THREADS = 4;
+
+    private static final int UPDATES_PER_THREAD = 200000;
+
+    /**
+     * never reports pauses, so LatencyStats doesn't add corrected values
+     */
+    private final PauseDetector pauseDetector = new PauseDetector() {
+    };
+
+    @AfterClass
+    public void shutdownPauseDetector() {
+        pauseDetector.shutdown();
+    }
+
+    @Test(dataProvider = "reservoirs")
+    public void neverLoseConcurrentUpdates(final Reservoir reservoir) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] writers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 1; i <= UPDATES_PER_THREAD; i++) {
+                        reservoir.update(i % 1000 + 1);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        Thread.sleep(50);
+
+        assertEquals("Every update should get into the window", THREADS * UPDATES_PER_THREAD, reservoir.getSnapshot().size());
+        assertEquals("Every update should get into the window", THREADS * UPDATES_PER_THREAD, reservoir.size());
+    }
+
+    @DataProvider(name = "reservoirs")
+    public Object[][] reservoirs() {
+        LatencyStats stats = LatencyStats.Builder.create()
+                .lowestTrackableLatency(1)
+                .highestTrackableLatency(TimeUnit.SECONDS.toNanos(1))
+                .pauseDetector(pauseDetector)
+                .build();
+
+        return new Object[][] {
+                {HdrLatencyReservoir.builder()
+                        .stats(stats)
+                        .flushEvery(1, TimeUnit.MILLISECONDS)
+                        .window(1, TimeUnit.MINUTES)
+                        .build()},
+                {HdrLatencyReservoir.builder()
+                        .stripes(2)
+                        .lowestTrackableLatency(1)
+                        .flushEvery(1, TimeUnit.MILLISECONDS)
+                        .window(1, TimeUnit.MINUTES)
+                        .build()},
+                {LogLinearBucketReservoir.builder()
+                        .stripes(2)
+                        .flushEvery(1, TimeUnit.MILLISECONDS)
+                        .window(1, TimeUnit.MINUTES)
+                        .build()}
+        };
+    }
+}
@@ -0,0 +1,76 @@
+package eu.inn.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import eu.inn.metrics.common.ManualFlushScheduler;
+import eu.inn.metrics.sed.SlidingExponentialDecayingReservoir;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.AssertJUnit.*;
+
+public class TimeWindowMeterTest {
+
+    private final ManualFlushScheduler scheduler = new ManualFlushScheduler();
+
+    private final CustomMetricRegistry registry = CustomMetricRegistry.builder()
+            .fromFactory(new TimeWindowMetricBuilderFactory(SlidingExponentialDecayingReservoir.builder()
+                    .flushScheduler(scheduler)
+                    .flushEvery(1, TimeUnit.SECONDS)
+                    .window(10, TimeUnit.SECONDS), true))
+            .build();
+
+    @Test
+    public void meterReportsRateOverTheWindow() {
+        Meter meter = registry.meter("meter");
+        assertTrue(meter instanceof TimeWindowMeter);
+
+        meter.mark(100);
+        assertEquals(100, meter.getCount());
+        scheduler.advance(2, TimeUnit.SECONDS);
+
+        assertEquals(50.0, meter.getOneMinuteRate());
+        assertEquals(50.0, meter.getFifteenMinuteRate());
+
+        scheduler.advance(8, TimeUnit.SECONDS);
+        assertEquals(10.0, meter.getOneMinuteRate());
+
+        scheduler.advance(1, TimeUnit.SECONDS);
+        assertEquals(0.0, meter.getOneMinuteRate());
+        assertEquals(100, meter.getCount());
+        assertEquals(100 / 11.0, meter.getMeanRate(), 1e-9);
+    }
+
+    @Test
+    public void counterReportsSumOverTheWindow() {
+        Counter counter = registry.counter("counter");
+        assertTrue(counter instanceof TimeWindowCounter);
+
+        counter.inc(10);
+        counter.dec(3);
+        scheduler.advance(1, TimeUnit.SECONDS);
+        assertEquals(7, counter.getCount());
+
+        scheduler.advance(10, TimeUnit.SECONDS);
+        assertEquals(0, counter.getCount());
+        assertEquals(7, ((TimeWindowCounter) counter).getTotalCount());
+    }
+
+    @Test
+    public void countersAreCumulativeByDefault() {
+        CustomMetricRegistry registry = CustomMetricRegistry.builder()
+                .fromFactory(new TimeWindowMetricBuilderFactory(SlidingExponentialDecayingReservoir.builder()
+                        .flushScheduler(scheduler)
+                        .flushEvery(1, TimeUnit.SECONDS)
+                        .window(10, TimeUnit.SECONDS)))
+                .build();
+
+        Counter counter = registry.counter("counter");
+        assertFalse(counter instanceof TimeWindowCounter);
+
+        counter.inc(10);
+        scheduler.advance(11, TimeUnit.SECONDS);
+        assertEquals(10, counter.getCount());
+    }
+}
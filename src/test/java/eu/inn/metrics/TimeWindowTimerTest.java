@@ -0,0 +1,133 @@
+package eu.inn.metrics;
+
+import com.codahale.metrics.Timer;
+import eu.inn.metrics.bucket.LogLinearBucketReservoir;
+import eu.inn.metrics.common.ManualFlushScheduler;
+import eu.inn.metrics.common.TimeWindowReservoirBuilder;
+import eu.inn.metrics.hdr.HdrLatencyReservoir;
+import eu.inn.metrics.hdr.RecordingMode;
+import eu.inn.metrics.sed.SlidingExponentialDecayingReservoir;
+import org.LatencyUtils.PauseDetector;
+import org.LatencyUtils.PauseDetectorListener;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.AssertJUnit.*;
+
+public class TimeWindowTimerTest {
+
+    @Test(dataProvider = "builders")
+    public void countAndRateFollowTheWindow(TimeWindowReservoirBuilder<?> builder) throws Exception {
+        CustomMetricRegistry registry = CustomMetricRegistry.builder()
+                .fromFactory(new TimeWindowMetricBuilderFactory(builder
+                        .flushEvery(10, TimeUnit.MILLISECONDS)
+                        .window(500, TimeUnit.MILLISECONDS)))
+                .build();
+        Timer timer = registry.timer("timer");
+
+        for (int i = 1; i <= 99; i++) {
+            timer.update(i, TimeUnit.MICROSECONDS);
+        }
+        timer.time().stop();
+        timer.time(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return null;
+            }
+        });
+        Thread.sleep(100);
+
+        assertEquals(101, timer.getCount());
+        assertEquals(101, timer.getSnapshot().size());
+        double rate = timer.getOneMinuteRate();
+        assertTrue("Unexpected rate " + rate, rate >= 101 / 0.5 && rate <= 101 / 0.01);
+        assertEquals(rate, timer.getFifteenMinuteRate(), rate / 2);
+
+        Thread.sleep(600);
+        assertEquals(0.0, timer.getOneMinuteRate());
+        assertEquals(0, timer.getSnapshot().size());
+        assertEquals(101, timer.getCount());
+    }
+
+    @Test
+    public void pauseCorrectionsOfDefaultReservoirAreNotCounted() throws InterruptedException {
+        InjectedPauseDetector pauseDetector = new InjectedPauseDetector();
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        TimeWindowTimer timer = new TimeWindowTimer(HdrLatencyReservoir.builder()
+                .pauseDetector(pauseDetector)
+                .flushScheduler(scheduler)
+                .flushEvery(1, TimeUnit.SECONDS)
+                .window(10, TimeUnit.SECONDS)
+                .build(), scheduler.getClock());
+
+        // the interval between values is estimated when the estimator window is full
+        for (int i = 0; i < 2000; i++) {
+            timer.update(1, TimeUnit.MILLISECONDS);
+        }
+        pauseDetector.pause(TimeUnit.SECONDS.toNanos(1));
+        scheduler.advance(2, TimeUnit.SECONDS);
+
+        assertTrue("Pause corrections should get into the snapshot", timer.getSnapshot().size() > 2000);
+        assertEquals(2000, timer.getCount());
+        assertEquals(1000.0, timer.getOneMinuteRate());
+        pauseDetector.shutdown();
+    }
+
+    @Test
+    public void expectedIntervalCorrectionsAreNotCounted() {
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        TimeWindowTimer timer = new TimeWindowTimer(HdrLatencyReservoir.builder()
+                .recordingMode(RecordingMode.EXPECTED_INTERVAL)
+                .expectedInterval(1, TimeUnit.MILLISECONDS)
+                .flushScheduler(scheduler)
+                .flushEvery(1, TimeUnit.SECONDS)
+                .window(10, TimeUnit.SECONDS)
+                .build(), scheduler.getClock());
+
+        timer.update(10, TimeUnit.MILLISECONDS);
+        scheduler.advance(1, TimeUnit.SECONDS);
+
+        assertEquals(10, timer.getSnapshot().size());
+        assertEquals(1, timer.getCount());
+        assertEquals(1.0, timer.getOneMinuteRate());
+    }
+
+    @Test
+    public void samplingReservoirKeepsTheMeter() {
+        TimeWindowTimer timer = new TimeWindowTimer(SlidingExponentialDecayingReservoir.builder().build());
+        timer.update(1, TimeUnit.MILLISECONDS);
+        assertEquals(1, timer.getCount());
+    }
+
+    /**
+     * It reports a pause on demand and waits until listeners which have been added before have handled it
+     */
+    private static class InjectedPauseDetector extends PauseDetector {
+
+        void pause(long pauseNanos) throws InterruptedException {
+            final CountDownLatch handled = new CountDownLatch(1);
+            PauseDetectorListener listener = new PauseDetectorListener() {
+                @Override
+                public void handlePauseEvent(long pauseLength, long pauseEndTime) {
+                    handled.countDown();
+                }
+            };
+            addListener(listener);
+            notifyListeners(pauseNanos, System.nanoTime());
+            handled.await();
+            removeListener(listener);
+        }
+    }
+
+    @DataProvider(name = "builders")
+    public Object[][] builders() {
+        return new Object[][] {
+                {HdrLatencyReservoir.builder().stripes(2).lowestTrackableLatency(1)},
+                {LogLinearBucketReservoir.builder()}
+        };
+    }
+}
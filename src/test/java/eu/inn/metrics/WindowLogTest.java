@@ -0,0 +1,174 @@
+package eu.inn.metrics;
+
+import com.codahale.metrics.Timer;
+import eu.inn.metrics.common.ManualFlushScheduler;
+import eu.inn.metrics.hdr.HdrLatencyReservoir;
+import org.HdrHistogram.Histogram;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.AssertJUnit.*;
+
+public class WindowLogTest {
+
+    private File directory;
+
+    private CustomMetricRegistry registry;
+
+    private ManualFlushScheduler scheduler;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("window-log").toFile();
+        scheduler = new ManualFlushScheduler();
+        // log timestamps are far from zero
+        scheduler.advance(1, TimeUnit.HOURS);
+        registry = CustomMetricRegistry.builder()
+                .fromFactory(new TimeWindowMetricBuilderFactory(HdrLatencyReservoir.builder()
+                        .stripes(1)
+                        .lowestTrackableLatency(1)
+                        .flushScheduler(scheduler)
+                        .flushEvery(10, TimeUnit.MILLISECONDS)
+                        .window(1, TimeUnit.SECONDS)))
+                .build();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void readBackWrittenIntervals() throws Exception {
+        long start = scheduler.getClock().getTime();
+        WindowLogWriter writer = WindowLogWriter.builder(registry, directory)
+                .flushScheduler(scheduler)
+                .writeEvery(1, TimeUnit.HOURS)
+                .build();
+
+        update(registry.timer("first"), 100);
+        scheduler.advance(10, TimeUnit.MILLISECONDS);
+        writer.flush();
+        update(registry.timer("first"), 10);
+        update(registry.timer("second"), 5);
+        scheduler.advance(10, TimeUnit.MILLISECONDS);
+        writer.flush();
+        writer.close();
+
+        SortedMap<String, Histogram> histograms = new WindowLogReader(directory, "metrics")
+                .read(start - 1000, scheduler.getClock().getTime() + 1000);
+
+        assertEquals(2, histograms.size());
+        assertEquals(110, histograms.get("first").getTotalCount());
+        assertEquals(100, histograms.get("first").getMaxValue());
+        assertEquals(5, histograms.get("second").getTotalCount());
+        assertTrue(new WindowLogReader(directory, "metrics").read(0, start - 1000).isEmpty());
+    }
+
+    @Test
+    public void readBackNamesWithDelimiters() throws Exception {
+        long start = scheduler.getClock().getTime();
+        WindowLogWriter writer = WindowLogWriter.builder(registry, directory)
+                .flushScheduler(scheduler)
+                .writeEvery(1, TimeUnit.HOURS)
+                .build();
+
+        update(registry.timer("GET /users, 100%"), 3);
+        update(registry.timer("GET /users%2C"), 4);
+        update(registry.timer("plain"), 5);
+        scheduler.advance(10, TimeUnit.MILLISECONDS);
+        writer.flush();
+        writer.close();
+
+        SortedMap<String, Histogram> histograms = new WindowLogReader(directory, "metrics")
+                .read(start - 1000, scheduler.getClock().getTime() + 1000);
+
+        assertEquals(3, histograms.size());
+        assertEquals(3, histograms.get("GET /users, 100%").getTotalCount());
+        assertEquals(4, histograms.get("GET /users%2C").getTotalCount());
+        assertEquals(5, histograms.get("plain").getTotalCount());
+    }
+
+    @Test
+    public void writeOnlyValuesFlushedAfterTheWriterIsBuilt() throws Exception {
+        update(registry.timer("timer"), 100);
+        scheduler.advance(10, TimeUnit.MILLISECONDS);
+        long flushedBeforeWriter = scheduler.getClock().getTime();
+        WindowLogWriter writer = WindowLogWriter.builder(registry, directory)
+                .flushScheduler(scheduler)
+                .writeEvery(1, TimeUnit.HOURS)
+                .build();
+
+        update(registry.timer("timer"), 10);
+        scheduler.advance(25, TimeUnit.MILLISECONDS);
+        writer.flush();
+        writer.close();
+
+        WindowLogReader reader = new WindowLogReader(directory, "metrics");
+        Histogram histogram = reader.read(flushedBeforeWriter, flushedBeforeWriter).get("timer");
+        assertEquals(10, histogram.getTotalCount());
+        assertEquals(flushedBeforeWriter, histogram.getStartTimeStamp());
+        assertEquals(flushedBeforeWriter + 20, histogram.getEndTimeStamp());
+        assertTrue(reader.read(flushedBeforeWriter + 1, flushedBeforeWriter + 1000).isEmpty());
+    }
+
+    @Test
+    public void rotateFilesBySize() throws Exception {
+        long start = scheduler.getClock().getTime();
+        WindowLogWriter writer = WindowLogWriter.builder(registry, directory)
+                .flushScheduler(scheduler)
+                .maxFileSize(1)
+                .writeEvery(1, TimeUnit.HOURS)
+                .build();
+
+        for (int i = 0; i < 3; i++) {
+            update(registry.timer("timer"), 10);
+            scheduler.advance(10, TimeUnit.MILLISECONDS);
+            writer.flush();
+        }
+        writer.close();
+
+        assertEquals(4, WindowLogReader.files(directory, "metrics").size());
+        SortedMap<String, Histogram> histograms = new WindowLogReader(directory, "metrics")
+                .read(start - 1000, scheduler.getClock().getTime() + 1000);
+        assertEquals(30, histograms.get("timer").getTotalCount());
+    }
+
+    @Test
+    public void closeWriterIfRotationFails() throws Exception {
+        WindowLogWriter writer = WindowLogWriter.builder(registry, directory)
+                .flushScheduler(scheduler)
+                .maxFileSize(1)
+                .writeEvery(1, TimeUnit.HOURS)
+                .build();
+        tearDown();
+
+        try {
+            writer.flush();
+            fail("Rotation into a removed directory should fail");
+        } catch (IllegalStateException e) {
+            assertTrue(writer.isClosed());
+        }
+        writer.flush();
+        assertFalse(directory.exists());
+    }
+
+    private static void update(Timer timer, int count) {
+        for (int i = 1; i <= count; i++) {
+            timer.update(i, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package eu.inn.metrics.bucket;
+
+import org.testng.annotations.Test;
+
+import static org.testng.AssertJUnit.*;
+
+public class BucketLayoutTest {
+
+    @Test
+    public void bucketsCoverValuesWithoutGaps() {
+        BucketLayout layout = new BucketLayout(5, 1L << 40);
+
+        assertEquals(0, layout.lowestValue(0));
+        for (int i = 1; i < layout.getBucketCount(); i++) {
+            assertEquals(layout.highestValue(i - 1) + 1, layout.lowestValue(i));
+        }
+        assertEquals(layout.getBucketCount() - 1, layout.index(1L << 40));
+    }
+
+    @Test
+    public void valuesFallIntoTheirBuckets() {
+        BucketLayout layout = new BucketLayout(5, Long.MAX_VALUE);
+
+        for (long value : new long[] {0, 1, 31, 32, 33, 63, 64, 65, 1000, 123456789, Long.MAX_VALUE}) {
+            int index = layout.index(value);
+            assertTrue(layout.lowestValue(index) <= value);
+            assertTrue(layout.highestValue(index) >= value);
+            assertTrue(layout.highestValue(index) - layout.lowestValue(index) <= Math.max(0, value / 32));
+        }
+    }
+
+    @Test
+    public void valuesOutOfRangeAreRecordedIntoBoundaryBuckets() {
+        BucketLayout layout = new BucketLayout(5, 1000);
+
+        assertEquals(0, layout.index(-1));
+        assertEquals(layout.getBucketCount() - 1, layout.index(1001));
+    }
+}
@@ -0,0 +1,82 @@
+package eu.inn.metrics.bucket;
+
+import org.testng.annotations.Test;
+
+import static org.testng.AssertJUnit.*;
+
+public class BucketSnapshotTest {
+
+    @Test
+    public void computeStatisticsOfRecordedValues() {
+        BucketLayout layout = new BucketLayout(5, 1L << 40);
+        BucketRecorder recorder = new BucketRecorder(layout, 4);
+        BucketWindow window = new BucketWindow(layout, 3);
+        for (long value = 1; value <= 10000; value++) {
+            recorder.record(value);
+        }
+        window.flush(recorder);
+
+        BucketSnapshot snapshot = window.snapshot();
+
+        assertEquals(10000, snapshot.size());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(10000, snapshot.getMax());
+        assertEquals(5000.5, snapshot.getMean());
+        assertEquals(5000, snapshot.getMedian(), 5000 / 32.0);
+        assertEquals(9900, snapshot.get99thPercentile(), 9900 / 32.0);
+        assertEquals(10000.0, snapshot.getValue(1.0));
+        assertEquals(2886.8, snapshot.getStdDev(), 30);
+        assertEquals(10000, snapshot.getValues().length);
+    }
+
+    @Test
+    public void clampValuesOutOfTrackableRange() {
+        BucketLayout layout = new BucketLayout(5, 1000);
+        BucketRecorder recorder = new BucketRecorder(layout, 1);
+        BucketWindow window = new BucketWindow(layout, 1);
+        recorder.record(-10);
+        recorder.record(5000);
+        window.flush(recorder);
+
+        BucketSnapshot snapshot = window.snapshot();
+
+        assertEquals(0, snapshot.getMin());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(500.0, snapshot.getMean());
+        assertEquals(1000.0, snapshot.getValue(1.0));
+    }
+
+    @Test
+    public void computePopulationStandardDeviation() {
+        BucketLayout layout = new BucketLayout(5, 1L << 40);
+        BucketRecorder recorder = new BucketRecorder(layout, 1);
+        BucketWindow window = new BucketWindow(layout, 1);
+        recorder.record(1);
+        recorder.record(3);
+        window.flush(recorder);
+
+        assertEquals(1.0, window.snapshot().getStdDev(), 1e-9);
+    }
+
+    @Test
+    public void slideOutOldestIntervals() {
+        BucketLayout layout = new BucketLayout(5, 1L << 40);
+        BucketRecorder recorder = new BucketRecorder(layout, 1);
+        BucketWindow window = new BucketWindow(layout, 2);
+
+        recorder.record(1000);
+        assertTrue(window.flush(recorder));
+        recorder.record(10);
+        assertTrue(window.flush(recorder));
+        assertEquals(1000, window.snapshot().getMax());
+
+        assertTrue(window.flush(recorder));
+        assertEquals(1, window.getCount());
+        assertEquals(10, window.snapshot().getMax());
+        assertEquals(10, window.snapshot().getMin());
+
+        assertTrue(window.flush(recorder));
+        assertFalse(window.flush(recorder));
+        assertEquals(0, window.snapshot().size());
+    }
+}
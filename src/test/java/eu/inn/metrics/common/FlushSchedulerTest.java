@@ -0,0 +1,61 @@
+package eu.inn.metrics.common;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.AssertJUnit.*;
+
+public class FlushSchedulerTest {
+
+    @Test
+    public void flushAllListenersWithTheSamePeriod() throws InterruptedException {
+        FlushScheduler scheduler = new FlushScheduler(2);
+        CountingListener first = new CountingListener();
+        CountingListener second = new CountingListener();
+
+        scheduler.register(first, 10, TimeUnit.MILLISECONDS);
+        scheduler.register(second, 10, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(55);
+
+        assertTrue("The first listener should be flushed", first.flushes.get() >= 3);
+        assertTrue("The second listener should be flushed", second.flushes.get() >= 3);
+    }
+
+    @Test
+    public void doNotFlushCancelledListeners() throws InterruptedException {
+        FlushScheduler scheduler = new FlushScheduler(1);
+        CountingListener listener = new CountingListener();
+
+        scheduler.register(listener, 10, TimeUnit.MILLISECONDS).cancel();
+
+        Thread.sleep(35);
+
+        assertEquals("Cancelled listener shouldn't be flushed", 0, listener.flushes.get());
+        assertEquals("Cancelled listener should be removed", 0, scheduler.registrations());
+    }
+
+    @Test
+    public void removeUnreachableListeners() throws InterruptedException {
+        FlushScheduler scheduler = new FlushScheduler(1);
+        scheduler.register(new CountingListener(), 10, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 50 && scheduler.registrations() > 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertEquals("Unreachable listener should be removed", 0, scheduler.registrations());
+    }
+
+    private static class CountingListener implements FlushListener {
+        private final AtomicInteger flushes = new AtomicInteger(0);
+
+        @Override
+        public void flush() {
+            flushes.incrementAndGet();
+        }
+    }
+}
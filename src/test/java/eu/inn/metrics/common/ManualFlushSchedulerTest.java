@@ -0,0 +1,76 @@
+package eu.inn.metrics.common;
+
+import com.codahale.metrics.Clock;
+import eu.inn.metrics.bucket.LogLinearBucketReservoir;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.AssertJUnit.*;
+
+public class ManualFlushSchedulerTest {
+
+    @Test
+    public void flushListenersInTheOrderOfDeadlines() {
+        final ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        final List<String> flushes = new ArrayList<>();
+        FlushListener fast = new FlushListener() {
+            @Override
+            public void flush() {
+                flushes.add("fast@" + scheduler.getClock().getTime());
+            }
+        };
+        FlushListener slow = new FlushListener() {
+            @Override
+            public void flush() {
+                flushes.add("slow@" + scheduler.getClock().getTime());
+            }
+        };
+        scheduler.register(fast, 10, TimeUnit.MILLISECONDS);
+        scheduler.register(slow, 25, TimeUnit.MILLISECONDS);
+
+        scheduler.advance(9, TimeUnit.MILLISECONDS);
+        assertTrue(flushes.isEmpty());
+
+        scheduler.advance(46, TimeUnit.MILLISECONDS);
+        assertEquals("[fast@10, fast@20, slow@25, fast@30, fast@40, fast@50, slow@50]", flushes.toString());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(55), scheduler.getClock().getTick());
+    }
+
+    @Test
+    public void doNotFlushCancelledListeners() {
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        final int[] flushes = {0};
+        FlushListener listener = new FlushListener() {
+            @Override
+            public void flush() {
+                flushes[0]++;
+            }
+        };
+        FlushScheduler.Registration registration = scheduler.register(listener, 1, TimeUnit.SECONDS);
+
+        scheduler.advance(2, TimeUnit.SECONDS);
+        registration.cancel();
+        scheduler.advance(2, TimeUnit.SECONDS);
+
+        assertEquals(2, flushes[0]);
+        assertEquals(0, scheduler.registrations());
+    }
+
+    @Test
+    public void buildersUseTheClockOfTheScheduler() {
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        TimeWindowReservoirBuilder<?> builder = LogLinearBucketReservoir.builder().flushScheduler(scheduler);
+        assertSame(scheduler.getClock(), builder.getClock());
+        assertSame(Clock.defaultClock(), LogLinearBucketReservoir.builder().getClock());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectOtherClocks() {
+        LogLinearBucketReservoir.builder()
+                .clock(Clock.defaultClock())
+                .flushScheduler(new ManualFlushScheduler());
+    }
+}
@@ -0,0 +1,114 @@
+package eu.inn.metrics.common;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.testng.AssertJUnit.*;
+
+public class RecorderHandoffTest {
+
+    @Test(timeOut = 5000)
+    public void valueOfStalledWriterIsDrainedBeforeHibernation() throws InterruptedException {
+        final ListHandoff handoff = new ListHandoff();
+        handoff.start();
+        handoff.flush();
+
+        handoff.stall = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                handoff.update(42);
+            }
+        });
+        writer.start();
+        handoff.recording.await();
+
+        Thread flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                handoff.flush();
+            }
+        });
+        flusher.start();
+        Thread.sleep(50);
+        assertTrue("The flusher should wait for the writer", flusher.isAlive());
+
+        handoff.stall.countDown();
+        writer.join();
+        flusher.join();
+
+        assertEquals("[42]", handoff.window.toString());
+        assertEquals(0, handoff.released);
+        assertFalse(handoff.isHibernating());
+    }
+
+    @Test
+    public void hibernateIdleRecorderAndWakeUpOnUpdate() {
+        ListHandoff handoff = new ListHandoff();
+        handoff.start();
+
+        handoff.flush();
+        handoff.flush();
+        assertTrue(handoff.isHibernating());
+        assertEquals(1, handoff.released);
+
+        handoff.update(1);
+        assertFalse(handoff.isHibernating());
+        assertEquals(2, handoff.wakeUps);
+    }
+
+    private static class ListHandoff extends RecorderHandoff<List<Long>> {
+
+        private final List<Long> window = new ArrayList<>();
+
+        private final CountDownLatch recording = new CountDownLatch(1);
+
+        private volatile CountDownLatch stall;
+
+        private int wakeUps = 0;
+
+        private int released = 0;
+
+        ListHandoff() {
+            super(new Object(), true);
+        }
+
+        @Override
+        protected List<Long> wakeUp() {
+            wakeUps++;
+            return new ArrayList<>();
+        }
+
+        @Override
+        protected boolean drain(List<Long> recorder) {
+            synchronized (recorder) {
+                window.addAll(recorder);
+                recorder.clear();
+            }
+            return window.isEmpty();
+        }
+
+        @Override
+        protected void hibernate(List<Long> recorder) {
+            released++;
+        }
+
+        @Override
+        protected void record(List<Long> recorder, long value) {
+            recording.countDown();
+            if (stall != null) {
+                try {
+                    stall.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (recorder) {
+                recorder.add(value);
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package eu.inn.metrics.common;
 
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -79,4 +80,38 @@ public class SinkTest {
 
         assertEquals(Arrays.asList(1), sink.getAll());
     }
+
+    @Test
+    public void slideReturnsEvictedNonEmptyElements() {
+        Sink<Integer> sink = new Sink<>(2);
+
+        assertNull(sink.slide(1));
+        assertNull(sink.slide(null));
+        assertEquals(Integer.valueOf(1), sink.slide(2));
+        assertNull(sink.slide(3));
+        assertEquals(Integer.valueOf(2), sink.slide(null));
+
+        assertEquals(Arrays.asList(3), sink.getAll());
+    }
+
+    @Test
+    public void visitElementsInsertedSinceTheGivenCount() {
+        Sink<Integer> sink = new Sink<>(3);
+        sink.add(1);
+        sink.add(2);
+        long insertedCount = sink.getInsertedCount();
+        sink.add(null);
+        sink.add(3);
+
+        final List<Integer> visited = new ArrayList<>();
+        sink.forEachSince(insertedCount, new Sink.Visitor<Integer>() {
+            @Override
+            public void visit(Integer element) {
+                visited.add(element);
+            }
+        });
+
+        assertEquals(4, sink.getInsertedCount());
+        assertEquals(Arrays.asList(3), visited);
+    }
 }
@@ -0,0 +1,62 @@
+package eu.inn.metrics.common;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.AssertJUnit.*;
+
+public class WindowCounterTest {
+
+    @Test
+    public void slideOutOldestPeriods() {
+        ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        WindowCounter counter = new WindowCounter(scheduler, 1, TimeUnit.SECONDS, 2);
+
+        counter.add(5);
+        assertEquals(0, counter.getWindowCount());
+        assertEquals(5, counter.getTotalCount());
+
+        scheduler.advance(1, TimeUnit.SECONDS);
+        counter.add(3);
+        scheduler.advance(1, TimeUnit.SECONDS);
+        assertEquals(8, counter.getWindowCount());
+        assertEquals(4.0, counter.getWindowRate());
+
+        scheduler.advance(1, TimeUnit.SECONDS);
+        assertEquals(3, counter.getWindowCount());
+
+        scheduler.advance(1, TimeUnit.SECONDS);
+        assertEquals(0, counter.getWindowCount());
+        assertEquals(8, counter.getTotalCount());
+    }
+
+    @Test
+    public void totalCountDoesNotGoBackwardsOnFlush() throws InterruptedException {
+        final ManualFlushScheduler scheduler = new ManualFlushScheduler();
+        final WindowCounter counter = new WindowCounter(scheduler, 1, TimeUnit.SECONDS, 4);
+        final AtomicBoolean flushing = new AtomicBoolean(true);
+        Thread flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (flushing.get()) {
+                    scheduler.advance(1, TimeUnit.SECONDS);
+                }
+            }
+        });
+        flusher.start();
+
+        long last = 0;
+        for (int i = 0; i < 100000; i++) {
+            counter.add(1);
+            long total = counter.getTotalCount();
+            assertTrue("the total count went back from " + last + " to " + total, total >= last);
+            last = total;
+        }
+        flushing.set(false);
+        flusher.join();
+
+        assertEquals(100000, counter.getTotalCount());
+    }
+}
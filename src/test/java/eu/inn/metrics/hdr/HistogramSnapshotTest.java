@@ -0,0 +1,82 @@
+package eu.inn.metrics.hdr;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.AssertJUnit.*;
+
+public class HistogramSnapshotTest {
+
+    @Test
+    public void cachedStatisticsAreTheSameAsHistogramOnes() {
+        Random random = new Random(42);
+        Histogram histogram = new Histogram(1, 3600L * 1000 * 1000 * 1000, 2);
+        for (int i = 0; i < 100000; i++) {
+            histogram.recordValue(1000 + (long) (Math.abs(random.nextGaussian()) * 50000000));
+        }
+
+        HistogramSnapshot snapshot = new HistogramSnapshot(histogram);
+
+        for (double quantile : new double[]{0.5, 0.75, 0.95, 0.98, 0.99, 0.999, 0.42}) {
+            assertEquals("Unexpected value at " + quantile,
+                    (double) histogram.getValueAtPercentile(quantile * 100.0), snapshot.getValue(quantile));
+        }
+        assertEquals(histogram.getMean(), snapshot.getMean(), histogram.getMean() * 1e-9);
+        assertEquals(histogram.getStdDeviation(), snapshot.getStdDev(), histogram.getStdDeviation() * 1e-9);
+        assertEquals(histogram.getMaxValue(), snapshot.getMax());
+        assertEquals(histogram.getMinValue(), snapshot.getMin());
+    }
+
+    @Test
+    public void emptySnapshotHasZeroStatistics() {
+        HistogramSnapshot snapshot = new HistogramSnapshot(new Histogram(2));
+
+        assertEquals(0.0, snapshot.getMean());
+        assertEquals(0.0, snapshot.getStdDev());
+        assertEquals(0.0, snapshot.getValue(0.99));
+    }
+
+    @Test
+    public void streamValuesByBuckets() {
+        Histogram histogram = new Histogram(1, 1000000, 3);
+        histogram.recordValueWithCount(10, 3);
+        histogram.recordValueWithCount(500, 2);
+        HistogramSnapshot snapshot = new HistogramSnapshot(histogram);
+
+        final List<Long> buckets = new ArrayList<>();
+        snapshot.forEachValue(new HistogramSnapshot.ValueVisitor() {
+            @Override
+            public void visit(long value, long count) {
+                buckets.add(value);
+                buckets.add(count);
+            }
+        });
+
+        assertEquals(Arrays.asList(10L, 3L, 500L, 2L), buckets);
+        assertTrue(Arrays.equals(new long[]{10, 10, 10, 500, 500}, snapshot.getValues()));
+    }
+
+    @Test
+    public void dumpCouldBeReadBack() {
+        Histogram histogram = new Histogram(1, 1000000, 3);
+        histogram.recordValueWithCount(10, 3);
+        histogram.recordValueWithCount(500, 2);
+        histogram.setStartTimeStamp(1000);
+        histogram.setEndTimeStamp(2000);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new HistogramSnapshot(histogram).dump(output);
+
+        HistogramLogReader reader = new HistogramLogReader(new ByteArrayInputStream(output.toByteArray()));
+        Histogram restored = (Histogram) reader.nextIntervalHistogram();
+        assertEquals(histogram, restored);
+    }
+}
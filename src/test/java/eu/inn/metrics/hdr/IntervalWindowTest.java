@@ -0,0 +1,77 @@
+package eu.inn.metrics.hdr;
+
+import org.HdrHistogram.Histogram;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static org.testng.AssertJUnit.*;
+
+public class IntervalWindowTest {
+
+    @Test(dataProvider = "storages")
+    public void mergedHistogramContainsOnlyLatestSlots(WindowStorage storage) {
+        IntervalWindow<?> window = IntervalWindow.create(storage, 3);
+        StripedRecorder recorder = new StripedRecorder(1, 1, 1000000, 2);
+
+        for (int interval = 1; interval <= 5; interval++) {
+            for (int i = 0; i < interval; i++) {
+                recorder.recordValue(interval * 1000);
+            }
+            assertTrue(window.flush(recorder));
+        }
+
+        Histogram merged = window.copy();
+        assertEquals(3 + 4 + 5, merged.getTotalCount());
+        assertTrue("Unexpected min", merged.valuesAreEquivalent(3000, merged.getMinValue()));
+        assertTrue("Unexpected max", merged.valuesAreEquivalent(5000, merged.getMaxValue()));
+    }
+
+    @Test(dataProvider = "storages")
+    public void becomesEmptyAfterEmptyIntervals(WindowStorage storage) {
+        IntervalWindow<?> window = IntervalWindow.create(storage, 2);
+        StripedRecorder recorder = new StripedRecorder(1, 1, 1000000, 2);
+
+        recorder.recordValue(10);
+        window.flush(recorder);
+        window.flush(recorder);
+        assertEquals(1, window.getTotalCount());
+
+        assertTrue("Sliding out the last values changes the window", window.flush(recorder));
+        assertEquals(0, window.getTotalCount());
+        assertFalse("Empty window doesn't change", window.flush(recorder));
+    }
+
+    @Test(dataProvider = "storages")
+    public void keepTheSameValuesAsDenseWindow(WindowStorage storage) {
+        IntervalWindow<?> window = IntervalWindow.create(storage, 5);
+        IntervalWindow<?> dense = IntervalWindow.create(WindowStorage.DENSE, 5);
+        StripedRecorder recorder = new StripedRecorder(1, 1, 1000000, 2);
+        StripedRecorder denseRecorder = new StripedRecorder(1, 1, 1000000, 2);
+        Random random = new Random(1);
+
+        for (int interval = 0; interval < 200; interval++) {
+            // intervals of different sizes make slots of a direct storage wrap around and grow
+            int values = interval % 7 == 0 ? 0 : random.nextInt(interval % 3 == 0 ? 5000 : 50);
+            for (int i = 0; i < values; i++) {
+                long value = 1 + random.nextInt(1000000);
+                recorder.recordValue(value);
+                denseRecorder.recordValue(value);
+            }
+            window.flush(recorder);
+            dense.flush(denseRecorder);
+
+            assertEquals(dense.getTotalCount(), window.getTotalCount());
+            if (dense.getTotalCount() > 0) {
+                assertEquals(dense.copy(), window.copy());
+                assertEquals(dense.copySince(dense.getSequence() - 2), window.copySince(window.getSequence() - 2));
+            }
+        }
+    }
+
+    @DataProvider(name = "storages")
+    public Object[][] storages() {
+        return new Object[][] {{WindowStorage.DENSE}, {WindowStorage.PACKED}, {WindowStorage.COMPRESSED}, {WindowStorage.DIRECT}};
+    }
+}
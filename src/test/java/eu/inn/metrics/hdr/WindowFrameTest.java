@@ -0,0 +1,98 @@
+package eu.inn.metrics.hdr;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.HdrHistogram.Histogram;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.AssertJUnit.*;
+
+public class WindowFrameTest {
+
+    @Test
+    public void mergeWindowsOfSeveralNodes() throws Exception {
+        Histogram expected = new Histogram(1, 3600L * 1000 * 1000 * 1000, 2);
+        MetricRegistry[] nodes = new MetricRegistry[3];
+        for (int node = 0; node < nodes.length; node++) {
+            nodes[node] = new MetricRegistry();
+            Timer timer = nodes[node].register("timer", new Timer(newReservoir()));
+            nodes[node].register("idle", new Timer(newReservoir()));
+            for (long i = 1; i <= 1000; i++) {
+                long value = i * (node + 1) * 1000;
+                timer.update(value, TimeUnit.NANOSECONDS);
+                expected.recordValue(value);
+            }
+        }
+
+        Thread.sleep(50);
+
+        WindowFrameAggregator aggregator = new WindowFrameAggregator();
+        for (MetricRegistry node : nodes) {
+            aggregator.add(new WindowFrameWriter(node).toByteArray());
+        }
+
+        Snapshot snapshot = aggregator.getSnapshot("timer");
+        assertEquals(expected.getTotalCount(), snapshot.size());
+        assertEquals(expected.getMaxValue(), snapshot.getMax());
+        assertEquals(expected.getMinValue(), snapshot.getMin());
+        assertEquals((double) expected.getValueAtPercentile(99), snapshot.get99thPercentile());
+        assertEquals((double) expected.getValueAtPercentile(50), snapshot.getMedian());
+        assertNull(aggregator.getSnapshot("idle"));
+        assertEquals(1, aggregator.getSnapshots().size());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void rejectUnknownFrames() throws IOException {
+        new WindowFrameAggregator().add(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+    }
+
+    @Test
+    public void ignoreTruncatedFramesAsAWhole() throws IOException {
+        Histogram histogram = new Histogram(1, 3600L * 1000 * 1000 * 1000, 2);
+        histogram.recordValue(1000);
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        byte[] encoded = Arrays.copyOf(buffer.array(), histogram.encodeIntoCompressedByteBuffer(buffer));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream frame = new DataOutputStream(output);
+        frame.writeInt(WindowFrameWriter.MAGIC);
+        frame.writeByte(WindowFrameWriter.VERSION);
+        frame.writeInt(2);
+        for (String name : new String[] {"first", "second"}) {
+            frame.writeUTF(name);
+            frame.writeInt(encoded.length);
+            frame.write(encoded);
+        }
+        frame.flush();
+        byte[] bytes = output.toByteArray();
+
+        WindowFrameAggregator aggregator = new WindowFrameAggregator();
+        try {
+            aggregator.add(Arrays.copyOf(bytes, bytes.length - 1));
+            fail("a truncated frame should be rejected");
+        } catch (IOException expected) {
+        }
+        assertTrue(aggregator.getSnapshots().isEmpty());
+
+        aggregator.add(bytes);
+        assertEquals(1, aggregator.getSnapshot("first").size());
+        assertEquals(1, aggregator.getSnapshot("second").size());
+    }
+
+    private static HdrLatencyReservoir newReservoir() {
+        return HdrLatencyReservoir.builder()
+                .stripes(1)
+                .lowestTrackableLatency(1)
+                .flushEvery(10, TimeUnit.MILLISECONDS)
+                .window(1, TimeUnit.SECONDS)
+                .build();
+    }
+}
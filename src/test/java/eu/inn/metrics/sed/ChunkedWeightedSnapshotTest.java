@@ -0,0 +1,51 @@
+package eu.inn.metrics.sed;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.WeightedSnapshot;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.AssertJUnit.*;
+
+public class ChunkedWeightedSnapshotTest {
+
+    @Test
+    public void haveTheSameStatisticsAsWeightedSnapshot() {
+        Random random = new Random(42);
+        List<SampleChunk> chunks = new ArrayList<>();
+        List<WeightedSnapshot.WeightedSample> samples = new ArrayList<>();
+        int size = 0;
+
+        for (int c = 0; c < 7; c++) {
+            int chunkSize = c == 3 ? 0 : random.nextInt(300);
+            long[] values = new long[chunkSize];
+            double[] weights = new double[chunkSize];
+            for (int i = 0; i < chunkSize; i++) {
+                values[i] = random.nextInt(10000);
+                weights[i] = random.nextDouble();
+                samples.add(new WeightedSnapshot.WeightedSample(values[i], weights[i]));
+            }
+            chunks.add(new SampleChunk(values, weights));
+            size += chunkSize;
+        }
+
+        Snapshot expected = new WeightedSnapshot(samples);
+        Snapshot actual = new ChunkedWeightedSnapshot(chunks, size);
+
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getMax(), actual.getMax());
+        assertEquals(expected.getMean(), actual.getMean(), 1e-6);
+        assertEquals(expected.getStdDev(), actual.getStdDev(), 1e-6);
+        for (double quantile : new double[]{0.5, 0.75, 0.95, 0.98, 0.99, 0.999}) {
+            assertEquals(expected.getValue(quantile), actual.getValue(quantile), 1e-6);
+        }
+        long[] values = actual.getValues();
+        for (int i = 1; i < values.length; i++) {
+            assertTrue("Values should be sorted", values[i - 1] <= values[i]);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package eu.inn.metrics.sed;
+
+import org.testng.annotations.Test;
+
+import static org.testng.AssertJUnit.*;
+
+public class ForwardDecayingSamplerTest {
+
+    @Test
+    public void keepAllSamplesBelowCapacity() {
+        ForwardDecayingSampler sampler = new ForwardDecayingSampler(100, 0.015);
+        for (long i = 1; i <= 50; i++) {
+            sampler.update(i);
+        }
+
+        SampleChunk chunk = sampler.drain();
+
+        assertEquals(50, chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            assertEquals("Samples should be sorted by value", i + 1, chunk.values[i]);
+        }
+    }
+
+    @Test
+    public void keepAtMostCapacitySamples() {
+        ForwardDecayingSampler sampler = new ForwardDecayingSampler(100, 0.015);
+        for (long i = 1; i <= 10000; i++) {
+            sampler.update(i);
+        }
+
+        SampleChunk chunk = sampler.drain();
+
+        assertEquals(100, chunk.size());
+        assertTrue("Sample should be spread over all values", chunk.values[99] - chunk.values[0] > 5000);
+    }
+
+    @Test
+    public void startNewPeriodAfterDrain() {
+        ForwardDecayingSampler sampler = new ForwardDecayingSampler(10, 0.015);
+        for (long i = 1; i <= 100; i++) {
+            sampler.update(i);
+        }
+        sampler.drain();
+
+        assertNull("Drained sampler should be empty", sampler.drain());
+
+        sampler.update(7);
+        SampleChunk chunk = sampler.drain();
+        assertEquals(1, chunk.size());
+        assertEquals(7, chunk.values[0]);
+    }
+}